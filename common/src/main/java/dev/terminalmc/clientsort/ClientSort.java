@@ -18,6 +18,8 @@ package dev.terminalmc.clientsort;
 
 import com.mojang.blaze3d.platform.InputConstants;
 import dev.terminalmc.clientsort.config.Config;
+import dev.terminalmc.clientsort.inventory.sort.CompositeSortOrder;
+import dev.terminalmc.clientsort.inventory.sort.InventorySorter;
 import dev.terminalmc.clientsort.inventory.sort.SortOrder;
 import dev.terminalmc.clientsort.network.InteractionManager;
 import net.minecraft.client.KeyMapping;
@@ -45,12 +47,14 @@ public class ClientSort {
     
     public static void onConfigSaved(Config config) {
         Config.Options options = config.options;
+        CompositeSortOrder.registerConfigured(options.compositeSortOrders);
         options.sortOrder = SortOrder.SORT_MODES.get(options.sortOrderStr);
         options.shiftSortOrder = SortOrder.SORT_MODES.get(options.shiftSortOrderStr);
         options.ctrlSortOrder = SortOrder.SORT_MODES.get(options.ctrlSortOrderStr);
         options.altSortOrder = SortOrder.SORT_MODES.get(options.altSortOrderStr);
         options.sortSoundLoc = ResourceLocation.tryParse(options.sortSound);
         setInteractionManagerTickRate(config.options);
+        InventorySorter.clearSortedLayouts();
     }
 
     public static void setInteractionManagerTickRate(Config.Options options) {
@@ -31,6 +31,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Config {
     private static final Path CONFIG_DIR = Services.PLATFORM.getConfigDir();
@@ -84,6 +87,9 @@ public class Config {
         public static final boolean lmbBundleDefault = false;
         public boolean lmbBundle = lmbBundleDefault;
 
+        public static final boolean hotbarSwapSortingDefault = true;
+        public boolean hotbarSwapSorting = hotbarSwapSortingDefault;
+
         // Sort mode options
         
         public static final String sortOrderDefault = SortOrder.CREATIVE.name;
@@ -101,6 +107,14 @@ public class Config {
         public static final String altSortOrderDefault = SortOrder.RAW_ID.name;
         public String altSortOrderStr = altSortOrderDefault;
         public transient SortOrder altSortOrder;
+
+        public static final int parallelSortThresholdMin = 64;
+        public static final int parallelSortThresholdMax = 100000;
+        public static final int parallelSortThresholdDefault = 512;
+        public int parallelSortThreshold = parallelSortThresholdDefault;
+
+        // Composite sort orders, as lists of key sort order names by name
+        public Map<String, List<String>> compositeSortOrders = new LinkedHashMap<>();
         
         // Sorting sound options
         
@@ -210,6 +224,15 @@ public class Config {
             options.soundVolume = Options.soundVolumeMin;
         if (options.soundVolume > Options.soundVolumeMax)
             options.soundVolume = Options.soundVolumeMax;
+        // parallelSortThreshold
+        if (options.parallelSortThreshold < Options.parallelSortThresholdMin)
+            options.parallelSortThreshold = Options.parallelSortThresholdMin;
+        if (options.parallelSortThreshold > Options.parallelSortThresholdMax)
+            options.parallelSortThreshold = Options.parallelSortThresholdMax;
+        // compositeSortOrders
+        if (options.compositeSortOrders == null)
+            options.compositeSortOrders = new LinkedHashMap<>();
+        options.compositeSortOrders.values().removeIf(keys -> keys == null || keys.isEmpty());
     }
 
     /**
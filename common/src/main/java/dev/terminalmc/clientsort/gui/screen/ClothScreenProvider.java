@@ -17,6 +17,7 @@
 package dev.terminalmc.clientsort.gui.screen;
 
 import dev.terminalmc.clientsort.config.Config;
+import dev.terminalmc.clientsort.inventory.sort.CompositeSortOrder;
 import dev.terminalmc.clientsort.inventory.sort.SortOrder;
 import dev.terminalmc.clientsort.util.item.CreativeSearchOrder;
 import me.shedaniel.clothconfig2.api.ConfigBuilder;
@@ -126,36 +127,57 @@ public class ClothScreenProvider {
                 })
                 .build());
 
+        general.addEntry(eb.startBooleanToggle(localized("option", "hotbarSwapSorting"),
+                        options.hotbarSwapSorting)
+                .setTooltip(localized("option", "hotbarSwapSorting.tooltip"))
+                .setDefaultValue(Config.Options.hotbarSwapSortingDefault)
+                .setSaveConsumer(val -> options.hotbarSwapSorting = val)
+                .build());
+
         ConfigCategory sort = builder.getOrCreateCategory(localized("option", "sorting"));
 
         sort.addEntry(eb.startSelector(localized("option", "sortOrder"),
                         SortOrder.SORT_MODES.keySet().toArray(), options.sortOrderStr)
-                .setNameProvider(val -> localized("sortOrder", (String)val))
+                .setNameProvider(val -> sortOrderName((String)val))
                 .setDefaultValue(Config.Options.sortOrderDefault)
                 .setSaveConsumer(val -> options.sortOrderStr = (String)val)
                 .build());
 
         sort.addEntry(eb.startSelector(localized("option", "shiftSortOrder"),
                         SortOrder.SORT_MODES.keySet().toArray(), options.shiftSortOrderStr)
-                .setNameProvider(val -> localized("sortOrder", (String)val))
+                .setNameProvider(val -> sortOrderName((String)val))
                 .setDefaultValue(Config.Options.shiftSortOrderDefault)
                 .setSaveConsumer(val -> options.shiftSortOrderStr = (String)val)
                 .build());
 
         sort.addEntry(eb.startSelector(localized("option", "ctrlSortOrder"),
                         SortOrder.SORT_MODES.keySet().toArray(), options.ctrlSortOrderStr)
-                .setNameProvider(val -> localized("sortOrder", (String)val))
+                .setNameProvider(val -> sortOrderName((String)val))
                 .setDefaultValue(Config.Options.ctrlSortOrderDefault)
                 .setSaveConsumer(val -> options.ctrlSortOrderStr = (String)val)
                 .build());
 
         sort.addEntry(eb.startSelector(localized("option", "altSortOrder"),
                         SortOrder.SORT_MODES.keySet().toArray(), options.altSortOrderStr)
-                .setNameProvider(val -> localized("sortOrder", (String)val))
+                .setNameProvider(val -> sortOrderName((String)val))
                 .setDefaultValue(Config.Options.altSortOrderDefault)
                 .setSaveConsumer(val -> options.altSortOrderStr = (String)val)
                 .build());
 
+        sort.addEntry(eb.startIntField(localized("option", "parallelSortThreshold"),
+                        options.parallelSortThreshold)
+                .setTooltip(localized("option", "parallelSortThreshold.tooltip"))
+                .setErrorSupplier(val -> {
+                    if (val < Config.Options.parallelSortThresholdMin) return Optional.of(
+                            localized("option", "error.low"));
+                    else if (val > Config.Options.parallelSortThresholdMax) return Optional.of(
+                            localized("option", "error.high"));
+                    else return Optional.empty();
+                })
+                .setDefaultValue(Config.Options.parallelSortThresholdDefault)
+                .setSaveConsumer(val -> options.parallelSortThreshold = val)
+                .build());
+
         ConfigCategory sound = builder.getOrCreateCategory(localized("option", "sound"));
 
         sound.addEntry(eb.startBooleanToggle(localized("option", "soundEnabled"),
@@ -239,4 +261,15 @@ public class ClothScreenProvider {
 
         return builder.build();
     }
+
+    /**
+     * @return the display name of the sort order with the specified name.
+     * Composite orders are named by the user, so are not localized.
+     */
+    private static Component sortOrderName(String name) {
+        if (SortOrder.SORT_MODES.get(name) instanceof CompositeSortOrder) {
+            return Component.literal(name);
+        }
+        return localized("sortOrder", name);
+    }
 }
@@ -27,6 +27,7 @@ import net.minecraft.world.entity.player.Inventory;
 import net.minecraft.world.inventory.ClickType;
 import net.minecraft.world.inventory.Slot;
 import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
 
 import static dev.terminalmc.clientsort.config.Config.options;
 
@@ -69,6 +70,26 @@ public class ContainerScreenHelper<T extends AbstractContainerScreen<?>> {
         return clickEventFactory.create(slot, action, actionType, playSound);
     }
 
+    /**
+     * Creates an event that directly sets the contents of the specified
+     * slots, without clicking.
+     * @param slots the slots to set.
+     * @param stacks the new contents of the respective slots.
+     * @return the event, or {@code null} if the slots cannot be set directly.
+     */
+    public @Nullable InteractionManager.InteractionEvent createSetSlotsEvent(
+            Slot[] slots, ItemStack[] stacks) {
+        return null;
+    }
+
+    /**
+     * @return {@code true} if number key swaps with the hotbar can be used to
+     * move stacks in the screen.
+     */
+    public boolean supportsHotbarSwap() {
+        return true;
+    }
+
     /**
      * @return {@code true} if the index of the slot in its inventory is less
      * than 9.
@@ -19,9 +19,15 @@ package dev.terminalmc.clientsort.inventory;
 
 import dev.terminalmc.clientsort.inventory.sort.Scope;
 import dev.terminalmc.clientsort.network.InteractionManager;
+import dev.terminalmc.clientsort.util.inject.ISlot;
+import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.screens.inventory.CreativeModeInventoryScreen;
 import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.inventory.InventoryMenu;
 import net.minecraft.world.inventory.Slot;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
 
 import static dev.terminalmc.clientsort.config.Config.options;
 
@@ -51,6 +57,56 @@ public class CreativeContainerScreenHelper<T extends CreativeModeInventoryScreen
         return Scope.INVALID;
     }
     
+    /**
+     * Slots in the player inventory can be set directly while the player has
+     * infinite materials, in the same way as the creative screen itself. Each
+     * slot is set locally, and a creative set slot packet is sent for it, all
+     * in a single event.
+     */
+    @Override
+    public @Nullable InteractionManager.InteractionEvent createSetSlotsEvent(
+            Slot[] slots, ItemStack[] stacks) {
+        Player player = Minecraft.getInstance().player;
+        if (player == null || !player.hasInfiniteMaterials()) return null;
+        for (Slot slot : slots) {
+            if (!(slot.container instanceof Inventory)) return null;
+        }
+        return new InteractionManager.CallbackEvent(() -> {
+            Minecraft minecraft = Minecraft.getInstance();
+            if (minecraft.gameMode == null) return InteractionManager.TICK_WAITER;
+            for (int i = 0; i < slots.length; i++) {
+                slots[i].set(stacks[i].copy());
+                minecraft.gameMode.handleCreativeModeItemAdd(stacks[i].copy(),
+                        getInventoryMenuSlot(((ISlot) slots[i]).clientSort$getIndexInInv()));
+            }
+            return InteractionManager.TICK_WAITER;
+        });
+    }
+
+    /**
+     * @return the index in the player's {@link InventoryMenu} of the slot
+     * holding the specified player inventory index.
+     */
+    private static int getInventoryMenuSlot(int indexInInv) {
+        if (indexInInv < Inventory.getSelectionSize()) {
+            return InventoryMenu.USE_ROW_SLOT_START + indexInInv;
+        }
+        if (indexInInv < Inventory.INVENTORY_SIZE) return indexInInv;
+        // Armor is stored from feet to head, but shown from head to feet
+        if (indexInInv < InventoryMenu.ARMOR_SLOT_END - InventoryMenu.ARMOR_SLOT_START
+                + Inventory.INVENTORY_SIZE) {
+            return InventoryMenu.ARMOR_SLOT_END - 1 - (indexInInv - Inventory.INVENTORY_SIZE);
+        }
+        return InventoryMenu.SHIELD_SLOT;
+    }
+
+    @Override
+    public boolean supportsHotbarSwap() {
+        // The creative screen handles number key swaps itself, rather than
+        // sending them to the server as clicks
+        return false;
+    }
+    
     @Override
     public void translateSlotMapping(int[] slotMapping) {
         if (!screen.isInventoryOpen()) {
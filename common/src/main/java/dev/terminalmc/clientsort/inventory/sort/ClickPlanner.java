@@ -0,0 +1,485 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.inventory.sort;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.inventory.ClickType;
+import net.minecraft.world.inventory.Slot;
+import net.minecraft.world.item.BundleItem;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.Items;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Plans the clicks required to combine partial stacks and then rearrange a
+ * set of slots according to a sorted slot mapping, as a single stream.
+ *
+ * <p>The mapping is decomposed into cycles, and each cycle is executed as one
+ * or more chains of clicks. Slots that would receive a stack interchangeable
+ * with the one they already hold are removed from their cycle entirely.</p>
+ *
+ * <p>Where a direct click would merge two stacks of the same item instead of
+ * swapping them, the conflict is resolved by parking the carried stack in an
+ * empty slot outside the chain, which takes four clicks. If there is no such
+ * slot, the carried stack is instead shuffled through the chain's working
+ * slot, which takes five.</p>
+ *
+ * <p>If the player's hotbar is known and has an empty slot outside a chain,
+ * the chain may instead be executed as number key swaps with that slot, which
+ * stands in for the cursor. Swaps never merge stacks or load bundles, so no
+ * conflicts need resolving, and they are used when cheaper under the
+ * {@link CostModel}.</p>
+ *
+ * <p>Every planned click is run against a {@link ClickSimulator}, and planning
+ * fails if a click would not have its intended effect, so that mispredicted
+ * clicks are never sent.</p>
+ */
+public class ClickPlanner {
+    private static final int EMPTY = -1;
+
+    private final Slot[] slots;
+    private final InventorySnapshot snapshot;
+    private final CostModel costModel;
+    private final boolean lmbBundle;
+    private final boolean hotbarSwap;
+    private final ClickSimulator simulator;
+
+    // Simulated inventory state, as indices into the snapshot. During a swap
+    // chain, the carried stack is held in the hotbar instead of the cursor.
+    private final int[] content;
+    private int carried = EMPTY;
+
+    private final List<SortPlan.Op> ops = new ArrayList<>();
+    private int clickCount = 0;
+
+    private ClickPlanner(Slot[] slots, InventorySnapshot initial, InventorySnapshot snapshot,
+                         @Nullable ItemStack[] hotbar, Player player, CostModel costModel,
+                         boolean lmbBundle) {
+        this.slots = slots;
+        this.snapshot = snapshot;
+        this.costModel = costModel;
+        this.lmbBundle = lmbBundle;
+        this.hotbarSwap = hotbar != null;
+        this.simulator = new ClickSimulator(slots, initial, hotbar, player, lmbBundle);
+        this.content = new int[snapshot.size()];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = snapshot.isEmpty(i) ? EMPTY : i;
+        }
+    }
+
+    /**
+     * Plans the clicks required to sort the slots.
+     * @param slots the slots being sorted.
+     * @param initial the contents of the respective slots.
+     * @param merges the operations that combine partial stacks, which are
+     *               sent first.
+     * @param combined the contents of the slots after combining.
+     * @param sortedIds maps each slot index (the target) to the index of the
+     *                  slot whose stack should be moved there (the origin)
+     *                  after combining, or {@code null} to only combine.
+     * @param hotbar the contents of the player's hotbar, or {@code null} to
+     *               only use pickup clicks.
+     * @param player the player performing the clicks.
+     * @param costModel the cost model used to choose between alternative
+     *                  click sequences.
+     * @param lmbBundle whether bundles use left-click to load.
+     * @return the planned operations, with slot numbers as indices into
+     * {@code slots}.
+     * @throws IllegalStateException if a planned click would not have its
+     * intended effect.
+     */
+    public static SortPlan plan(Slot[] slots, InventorySnapshot initial,
+                                List<SortPlan.Merge> merges,
+                                InventorySnapshot combined, @Nullable int[] sortedIds,
+                                @Nullable ItemStack[] hotbar, Player player,
+                                CostModel costModel, boolean lmbBundle) {
+        ClickPlanner planner = new ClickPlanner(slots, initial, combined, hotbar, player,
+                costModel, lmbBundle);
+        planner.planMerges(merges);
+        if (sortedIds != null) planner.planCycles(sortedIds);
+        return new SortPlan(planner.ops);
+    }
+
+    /**
+     * Records the operations that combine partial stacks, and checks that
+     * they produce the combined contents.
+     * @throws IllegalStateException if they do not.
+     */
+    private void planMerges(List<SortPlan.Merge> merges) {
+        for (SortPlan.Merge merge : merges) {
+            ops.add(merge);
+            for (Click click : merge.clicks()) {
+                clickCount++;
+                if (!simulator.click(click)) {
+                    throw new IllegalStateException("Unable to simulate stack combining");
+                }
+            }
+        }
+        if (!simulator.getCarried().isEmpty()) {
+            throw new IllegalStateException("Stack combining would leave a carried stack");
+        }
+        for (int i = 0; i < content.length; i++) {
+            if (!ItemStack.matches(simulator.getItem(i), snapshot.stack(i))) {
+                throw new IllegalStateException(String.format(
+                        "Stack combining would not produce the planned stack in slot %d", i));
+            }
+        }
+    }
+
+    /**
+     * Decomposes the slot mapping into cycles and plans each one.
+     */
+    private void planCycles(int[] sortedIds) {
+        final int slotCount = snapshot.size();
+        int[] origin2Target = new int[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            origin2Target[sortedIds[i]] = i;
+        }
+
+        BitSet visited = new BitSet(slotCount);
+        IntArrayList cycle = new IntArrayList();
+        for (int start = 0; start < slotCount; start++) {
+            if (visited.get(start)) continue;
+            // Follow the stack at each slot to its target until we return to
+            // the start, so that the stack at cycle[i] goes to cycle[i + 1]
+            cycle.clear();
+            int id = start;
+            do {
+                visited.set(id);
+                cycle.add(id);
+                id = origin2Target[id];
+            } while (id != start);
+            if (cycle.size() > 1) planCycle(contract(cycle));
+        }
+        verifyLayout(sortedIds);
+    }
+
+    /**
+     * Checks that every slot holds a stack interchangeable with the one at its
+     * origin in the slot mapping, and that no stack is left carried.
+     * @throws IllegalStateException if not.
+     */
+    private void verifyLayout(int[] sortedIds) {
+        if (!simulator.getCarried().isEmpty()) {
+            throw new IllegalStateException("Sorting would leave a carried stack");
+        }
+        for (int i = 0; i < content.length; i++) {
+            int origin = sortedIds[i];
+            boolean planned = content[i] == EMPTY
+                    ? snapshot.isEmpty(origin) : interchangeable(content[i], origin);
+            if (!planned || !ItemStack.matches(simulator.getItem(i), snapshot.stack(origin))) {
+                throw new IllegalStateException(String.format(
+                        "Sorting would not produce the sorted stack in slot %d", i));
+            }
+        }
+    }
+
+    /**
+     * Removes all slots from the cycle that would receive a stack
+     * interchangeable with the one they already hold.
+     *
+     * <p>The predecessor of a removed slot can send its stack directly to the
+     * next slot in the cycle instead, as the stacks are interchangeable.</p>
+     */
+    private IntArrayList contract(IntArrayList cycle) {
+        final int size = cycle.size();
+        IntArrayList contracted = new IntArrayList(size);
+        for (int i = 0; i < size; i++) {
+            int prev = cycle.getInt((i + size - 1) % size);
+            int slot = cycle.getInt(i);
+            if (!interchangeable(prev, slot)) contracted.add(slot);
+        }
+        return contracted;
+    }
+
+    /**
+     * Plans a contracted cycle, in which no two consecutive slots hold
+     * interchangeable stacks.
+     */
+    private void planCycle(IntArrayList cycle) {
+        final int size = cycle.size();
+        if (size < 2) return;
+
+        int firstEmpty = -1;
+        for (int i = 0; i < size; i++) {
+            if (content[cycle.getInt(i)] == EMPTY) {
+                firstEmpty = i;
+                break;
+            }
+        }
+
+        IntArrayList walk = new IntArrayList(size + 1);
+        if (firstEmpty == -1) {
+            // Closed cycle. The final click of the walk places into the empty
+            // starting slot, so if we start at the target of a conflicting
+            // step, that step is free.
+            int start = 0;
+            for (int i = 0; i < size; i++) {
+                int next = (i + 1) % size;
+                if (conflicts(cycle.getInt(i), cycle.getInt(next))) {
+                    start = next;
+                    break;
+                }
+            }
+            for (int i = 0; i <= size; i++) {
+                walk.add(cycle.getInt((start + i) % size));
+            }
+            planWalk(walk);
+        } else {
+            // Empty slots split the cycle into open paths, each of which
+            // starts after one empty slot and ends by filling the next
+            for (int i = 1; i <= size; i++) {
+                int slot = cycle.getInt((firstEmpty + i) % size);
+                walk.add(slot);
+                if (content[slot] == EMPTY) {
+                    planWalk(walk);
+                    walk.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Plans a chain of clicks that picks up the stack at the first slot of the
+     * walk, then clicks each following slot in turn.
+     *
+     * <p>Each click places the carried stack and picks up the stack that was
+     * in the slot. The last slot of the walk must be empty when reached.</p>
+     */
+    private void planWalk(IntArrayList walk) {
+        if (walk.size() < 2) return;
+        int button = findHotbarBuffer(walk);
+        if (button != EMPTY && costModel.cost(ClickType.SWAP, walk.size()) < pickupCost(walk)) {
+            planSwapWalk(walk, button);
+            return;
+        }
+
+        final int working = walk.getInt(0);
+        IntArrayList deferred = new IntArrayList();
+
+        click(working);
+        for (int i = 1; i < walk.size(); i++) {
+            int target = walk.getInt(i);
+            if (!conflicts(carried, content[target])) {
+                click(target);
+                continue;
+            }
+
+            // Clicking would merge the carried stack into the target stack
+            // instead of swapping them
+            int buffer = findBuffer(walk);
+            if (buffer != EMPTY) {
+                // Park the carried stack in a free slot, pick up the target
+                // stack, and return the parked stack once the walk is done
+                click(buffer);
+                click(target);
+                deferred.add(buffer);
+                deferred.add(target);
+            } else {
+                // Clicking with a low stack on a full stack does nothing, so
+                // instead we click working slot, target slot, working, target,
+                // working. After combining, the target stack is always full.
+                click(working);
+                click(target);
+                click(working);
+                click(target);
+                click(working);
+            }
+        }
+
+        for (int i = 0; i < deferred.size(); i += 2) {
+            click(deferred.getInt(i));
+            click(deferred.getInt(i + 1));
+        }
+    }
+
+    /**
+     * Plans a walk as number key swaps with an empty hotbar slot, which holds
+     * the carried stack in place of the cursor.
+     */
+    private void planSwapWalk(IntArrayList walk, int button) {
+        for (int i = 0; i < walk.size(); i++) {
+            int slot = walk.getInt(i);
+            Click click = new Click(slot, button, ClickType.SWAP);
+            ops.add(new SortPlan.Swap(slot, button));
+            clickCount++;
+
+            int temp = content[slot];
+            content[slot] = carried;
+            carried = temp;
+            verify(click);
+        }
+    }
+
+    /**
+     * @return the estimated cost of planning the walk with pickup clicks,
+     * assuming each conflict is resolved by parking the carried stack.
+     */
+    private int pickupCost(IntArrayList walk) {
+        int walkCost = costModel.cost(ClickType.PICKUP, walk.size());
+        // Parking replaces the conflicting click with four clicks
+        int conflictCost = costModel.cost(ClickType.PICKUP, 3);
+        // Each click picks up the stack that the next click places, and the
+        // last slot is empty by the time it is reached
+        for (int i = 1; i < walk.size() - 1; i++) {
+            if (conflicts(content[walk.getInt(i - 1)], content[walk.getInt(i)])) {
+                walkCost += conflictCost;
+            }
+        }
+        return walkCost;
+    }
+
+    /**
+     * @return the number key of an empty hotbar slot that is not part of the
+     * walk, or {@code -1} if there is none.
+     */
+    private int findHotbarBuffer(IntArrayList walk) {
+        if (!hotbarSwap) return EMPTY;
+        for (int button = 0; button < Inventory.getSelectionSize(); button++) {
+            ItemStack stack = simulator.getHotbarItem(button);
+            if (stack == null || !stack.isEmpty()) continue;
+            int slot = simulator.getHotbarSlot(button);
+            if (slot == EMPTY || !walk.contains(slot)) return button;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * @return the index of an empty slot that can temporarily hold the carried
+     * stack during the current walk, or {@code -1} if there is none.
+     *
+     * <p>Slots of the walk are never used, as a target emptied by parking
+     * must receive its own parked stack once the walk is done. Slots already
+     * holding a parked stack are not empty, so each buffer is used once.</p>
+     */
+    private int findBuffer(IntArrayList walk) {
+        ItemStack stack = simulator.getCarried();
+        for (int i = 0; i < content.length; i++) {
+            if (!simulator.getItem(i).isEmpty() || walk.contains(i)) continue;
+            if (slots[i].mayPlace(stack)) return i;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Records a left-click on the specified slot, and simulates its effect.
+     * @throws IllegalStateException if the click would not swap the carried
+     * stack with the slot stack.
+     */
+    private void click(int slot) {
+        int button = 0;
+        // Bundles require special handling. Specifically, to perform a swap
+        // between the carried item and the target slot, you normally must use
+        // left-click (0), but if holding a bundle you must use right-click (1).
+        if (lmbBundle) {
+            Item slotItem = simulator.getItem(slot).getItem();
+            Item carriedItem = simulator.getCarried().getItem();
+            if ((slotItem instanceof BundleItem && carriedItem != Items.AIR)
+                    || (carriedItem instanceof BundleItem && slotItem != Items.AIR)) {
+                button = 1;
+            }
+        }
+        Click click = new Click(slot, button, ClickType.PICKUP);
+        ops.add(new SortPlan.Pickup(slot, button));
+        clickCount++;
+
+        // All planned clicks are pickups, placements, or swaps (or merges that
+        // are equivalent to swaps)
+        int temp = content[slot];
+        content[slot] = carried;
+        carried = temp;
+        verify(click);
+    }
+
+    /**
+     * Simulates the click, and checks that the simulated slot and carried
+     * stacks match the planned ones.
+     * @throws IllegalStateException if they do not.
+     */
+    private void verify(Click click) {
+        boolean simulated = simulator.click(click);
+        ItemStack held = click.type() == ClickType.SWAP
+                ? simulator.getHotbarItem(click.button()) : simulator.getCarried();
+        if (!simulated || held == null
+                || !ItemStack.matches(simulator.getItem(click.slot()), stack(content[click.slot()]))
+                || !ItemStack.matches(held, stack(carried))) {
+            throw new IllegalStateException(String.format(
+                    "Click %d on slot %d would not have its planned effect",
+                    clickCount, click.slot()));
+        }
+    }
+
+    private ItemStack stack(int index) {
+        return index == EMPTY ? ItemStack.EMPTY : snapshot.stack(index);
+    }
+
+    /**
+     * @return {@code true} if the stacks at the specified indices are both
+     * empty, or are the same item with the same components and count.
+     */
+    private boolean interchangeable(int a, int b) {
+        return snapshot.isInterchangeable(a, b);
+    }
+
+    /**
+     * @return {@code true} if clicking with the carried stack on the slot
+     * stack would merge the two instead of swapping them.
+     *
+     * <p>A full carried stack tops up a partial slot stack and keeps the
+     * remainder, which is equivalent to a swap.</p>
+     */
+    private boolean conflicts(int carriedIndex, int slotIndex) {
+        if (carriedIndex == EMPTY || slotIndex == EMPTY) return false;
+        int carriedCount = snapshot.count(carriedIndex);
+        return carriedCount != snapshot.count(slotIndex)
+                && carriedCount < snapshot.maxStackSize(carriedIndex)
+                && snapshot.isSameItemSameComponents(carriedIndex, slotIndex);
+    }
+
+    /**
+     * A single planned click.
+     * @param slot the index of the slot to click.
+     * @param button the mouse button to click with.
+     * @param type the type of click.
+     */
+    public record Click(int slot, int button, ClickType type) {}
+
+    /**
+     * Assigns a relative cost to each type of click.
+     */
+    @FunctionalInterface
+    public interface CostModel {
+        /**
+         * Every click costs the same, as each one is rate limited equally.
+         */
+        CostModel UNIFORM = type -> 1;
+
+        int cost(ClickType type);
+
+        default int cost(ClickType type, int count) {
+            return cost(type) * count;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.inventory.sort;
+
+import net.minecraft.core.component.DataComponents;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.inventory.ClickAction;
+import net.minecraft.world.inventory.Slot;
+import net.minecraft.world.item.BundleItem;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.component.BundleContents;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Simulates the effect of clicks on a set of slots, following the vanilla
+ * container menu rules for {@link net.minecraft.world.inventory.ClickType#PICKUP}
+ * and {@link net.minecraft.world.inventory.ClickType#SWAP} clicks.
+ *
+ * <p>Stacks are tracked with their full counts and components, so partial
+ * merges, per-stack and per-slot max stack sizes, slot placement rules and
+ * bundle insertion are all accounted for. Slot rules are read from the real
+ * slots, but the real slots are never modified.</p>
+ *
+ * <p>Simulation may run off the render thread. Of the real slots, it only
+ * reads {@link Slot#container} and calls {@link Slot#getContainerSlot()},
+ * {@link Slot#mayPickup}, {@link Slot#mayPlace},
+ * {@link Slot#allowModification} and {@link Slot#getMaxStackSize(ItemStack)},
+ * and of the player only what those methods read.</p>
+ */
+public class ClickSimulator {
+    private static final int NOT_SIMULATED = -1;
+
+    private final Slot[] slots;
+    private final ItemStack[] contents;
+    // Index of the simulated slot holding each hotbar slot
+    private final int[] hotbar;
+    // Contents of the hotbar slots that are not simulated slots, if known
+    private final @Nullable ItemStack[] hotbarStacks;
+    private final Player player;
+    private final ClickAction bundleAction;
+    private ItemStack carried = ItemStack.EMPTY;
+
+    /**
+     * @param slots the slots being simulated.
+     * @param snapshot the initial contents of the respective slots.
+     * @param hotbar the initial contents of the player's hotbar, or
+     *               {@code null} if unknown.
+     * @param player the player performing the clicks.
+     * @param lmbBundle whether bundles use left-click to load.
+     */
+    public ClickSimulator(Slot[] slots, InventorySnapshot snapshot,
+                          @Nullable ItemStack[] hotbar, Player player, boolean lmbBundle) {
+        this.slots = slots;
+        this.contents = new ItemStack[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            contents[i] = snapshot.stack(i).copy();
+        }
+        this.hotbar = new int[Inventory.getSelectionSize()];
+        Arrays.fill(this.hotbar, NOT_SIMULATED);
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i].container instanceof Inventory
+                    && slots[i].getContainerSlot() < this.hotbar.length) {
+                this.hotbar[slots[i].getContainerSlot()] = i;
+            }
+        }
+        if (hotbar == null) {
+            this.hotbarStacks = null;
+        } else {
+            this.hotbarStacks = new ItemStack[this.hotbar.length];
+            for (int i = 0; i < hotbarStacks.length; i++) {
+                hotbarStacks[i] = i < hotbar.length ? hotbar[i].copy() : ItemStack.EMPTY;
+            }
+        }
+        this.player = player;
+        this.bundleAction = lmbBundle ? ClickAction.PRIMARY : ClickAction.SECONDARY;
+    }
+
+    /**
+     * @return the simulated stack in the specified slot, which must not be
+     * modified.
+     */
+    public ItemStack getItem(int slot) {
+        return contents[slot];
+    }
+
+    /**
+     * @return the simulated carried stack, which must not be modified.
+     */
+    public ItemStack getCarried() {
+        return carried;
+    }
+
+    /**
+     * @return the index of the simulated slot holding the specified hotbar
+     * slot, or {@code -1} if it is not a simulated slot.
+     */
+    public int getHotbarSlot(int button) {
+        return hotbar[button];
+    }
+
+    /**
+     * @return the simulated stack in the specified hotbar slot, which must not
+     * be modified, or {@code null} if its contents are unknown.
+     */
+    public @Nullable ItemStack getHotbarItem(int button) {
+        if (hotbar[button] != NOT_SIMULATED) return contents[hotbar[button]];
+        return hotbarStacks == null ? null : hotbarStacks[button];
+    }
+
+    /**
+     * Simulates the specified click.
+     * 
+     * <p>Where a quick-moved stack ends up depends on the menu's
+     * {@code quickMoveStack}, which is not modelled, so
+     * {@link net.minecraft.world.inventory.ClickType#QUICK_MOVE} clicks
+     * cannot be simulated.</p>
+     * @return {@code false} if the effect of the click cannot be simulated.
+     */
+    public boolean click(ClickPlanner.Click click) {
+        return switch (click.type()) {
+            case PICKUP -> {
+                pickup(click.slot(), click.button() == 0
+                        ? ClickAction.PRIMARY : ClickAction.SECONDARY);
+                yield true;
+            }
+            case SWAP -> swap(click.slot(), click.button());
+            default -> false;
+        };
+    }
+
+    /**
+     * Sets the simulated stack in the specified slot directly, bypassing the
+     * slot rules.
+     */
+    public void set(int slot, ItemStack stack) {
+        contents[slot] = stack.copy();
+    }
+
+    private void pickup(int index, ClickAction action) {
+        if (bundleInteraction(index, action)) return;
+        Slot slot = slots[index];
+        ItemStack slotStack = contents[index];
+        if (slotStack.isEmpty()) {
+            if (!carried.isEmpty()) {
+                carried = insert(index, carried,
+                        action == ClickAction.PRIMARY ? carried.getCount() : 1);
+            }
+        } else if (slot.mayPickup(player)) {
+            if (carried.isEmpty()) {
+                int count = action == ClickAction.PRIMARY
+                        ? slotStack.getCount() : (slotStack.getCount() + 1) / 2;
+                carried = remove(index, count, Integer.MAX_VALUE);
+            } else if (slot.mayPlace(carried)) {
+                if (ItemStack.isSameItemSameComponents(slotStack, carried)) {
+                    carried = insert(index, carried,
+                            action == ClickAction.PRIMARY ? carried.getCount() : 1);
+                } else if (carried.getCount() <= slot.getMaxStackSize(carried)) {
+                    contents[index] = carried;
+                    carried = slotStack;
+                }
+            } else if (ItemStack.isSameItemSameComponents(slotStack, carried)) {
+                ItemStack removed = remove(index, slotStack.getCount(),
+                        carried.getMaxStackSize() - carried.getCount());
+                carried.grow(removed.getCount());
+            }
+        }
+    }
+
+    /**
+     * Simulates a number key swap between a slot and a hotbar slot.
+     * @return {@code false} if the contents of the hotbar slot are unknown,
+     * or if the displaced stack would be inserted into the player inventory.
+     */
+    private boolean swap(int index, int button) {
+        if (button < 0 || button >= hotbar.length || getHotbarItem(button) == null) {
+            return false;
+        }
+        Slot slot = slots[index];
+        ItemStack hotbarStack = getHotbarItem(button);
+        ItemStack slotStack = contents[index];
+        if (hotbarStack.isEmpty()) {
+            if (!slotStack.isEmpty() && slot.mayPickup(player)) {
+                setHotbarItem(button, slotStack);
+                contents[index] = ItemStack.EMPTY;
+            }
+        } else if (slotStack.isEmpty()) {
+            if (slot.mayPlace(hotbarStack)) {
+                int maxSize = slot.getMaxStackSize(hotbarStack);
+                if (hotbarStack.getCount() > maxSize) {
+                    contents[index] = hotbarStack.split(maxSize);
+                } else {
+                    setHotbarItem(button, ItemStack.EMPTY);
+                    contents[index] = hotbarStack;
+                }
+            }
+        } else if (slot.mayPickup(player) && slot.mayPlace(hotbarStack)) {
+            if (hotbarStack.getCount() > slot.getMaxStackSize(hotbarStack)) return false;
+            setHotbarItem(button, slotStack);
+            contents[index] = hotbarStack;
+        }
+        return true;
+    }
+
+    private void setHotbarItem(int button, ItemStack stack) {
+        if (hotbar[button] != NOT_SIMULATED) {
+            contents[hotbar[button]] = stack;
+        } else if (hotbarStacks != null) {
+            hotbarStacks[button] = stack;
+        }
+    }
+
+    /**
+     * Simulates a click that loads or unloads a bundle.
+     * @return {@code true} if the click interacted with a bundle.
+     */
+    private boolean bundleInteraction(int index, ClickAction action) {
+        if (action != bundleAction) return false;
+        ItemStack slotStack = contents[index];
+        if (isBundle(carried)) {
+            // Carried bundle clicked on the slot
+            BundleContents bundleContents = carried.get(DataComponents.BUNDLE_CONTENTS);
+            if (bundleContents == null) return false;
+            BundleContents.Mutable mutable = new BundleContents.Mutable(bundleContents);
+            if (slotStack.isEmpty()) {
+                ItemStack removed = mutable.removeOne();
+                if (removed != null) mutable.tryInsert(insert(index, removed, removed.getCount()));
+            } else if (slotStack.getItem().canFitInsideContainerItems()) {
+                // Insert as much of the slot stack as the bundle has room for
+                int room = new BundleContents.Mutable(bundleContents).tryInsert(slotStack.copy());
+                if (room > 0) mutable.tryInsert(remove(index, slotStack.getCount(), room));
+            }
+            carried.set(DataComponents.BUNDLE_CONTENTS, mutable.toImmutable());
+            return true;
+        }
+        if (isBundle(slotStack) && slots[index].allowModification(player)) {
+            // Slot bundle clicked with the carried stack
+            BundleContents bundleContents = slotStack.get(DataComponents.BUNDLE_CONTENTS);
+            if (bundleContents == null) return false;
+            BundleContents.Mutable mutable = new BundleContents.Mutable(bundleContents);
+            if (carried.isEmpty()) {
+                ItemStack removed = mutable.removeOne();
+                if (removed != null) carried = removed;
+            } else {
+                mutable.tryInsert(carried);
+                if (carried.isEmpty()) carried = ItemStack.EMPTY;
+            }
+            slotStack.set(DataComponents.BUNDLE_CONTENTS, mutable.toImmutable());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Inserts up to {@code count} items of the stack into the slot.
+     * @return the remainder of the stack.
+     */
+    private ItemStack insert(int index, ItemStack stack, int count) {
+        Slot slot = slots[index];
+        if (stack.isEmpty() || !slot.mayPlace(stack)) return stack;
+        ItemStack current = contents[index];
+        int moved = Math.min(Math.min(count, stack.getCount()),
+                slot.getMaxStackSize(stack) - current.getCount());
+        if (moved <= 0) return stack;
+        if (current.isEmpty()) {
+            contents[index] = stack.split(moved);
+        } else if (ItemStack.isSameItemSameComponents(current, stack)) {
+            stack.shrink(moved);
+            current.grow(moved);
+        }
+        return stack.isEmpty() ? ItemStack.EMPTY : stack;
+    }
+
+    /**
+     * Removes up to {@code count} items from the slot, but no more than
+     * {@code limit}.
+     * @return the removed items.
+     */
+    private ItemStack remove(int index, int count, int limit) {
+        Slot slot = slots[index];
+        ItemStack current = contents[index];
+        if (!slot.mayPickup(player)) return ItemStack.EMPTY;
+        if (!slot.allowModification(player) && limit < current.getCount()) {
+            return ItemStack.EMPTY;
+        }
+        ItemStack removed = current.split(Math.min(count, limit));
+        if (current.isEmpty()) contents[index] = ItemStack.EMPTY;
+        return removed;
+    }
+
+    private static boolean isBundle(ItemStack stack) {
+        return stack.getItem() instanceof BundleItem && stack.getCount() == 1;
+    }
+}
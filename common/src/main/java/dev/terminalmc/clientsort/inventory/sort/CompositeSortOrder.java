@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.inventory.sort;
+
+import dev.terminalmc.clientsort.main.MainSort;
+import dev.terminalmc.clientsort.util.item.StackComparison;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link SortOrder} that chains several {@link KeySortOrder}s, each breaking
+ * ties left by the previous one.
+ * 
+ * <p>All keys are extracted up front, and the slots are sorted by the whole
+ * chain in a single multi-key radix sort.</p>
+ */
+public class CompositeSortOrder extends SortOrder {
+    // Names of the orders registered from the config
+    private static final Set<String> configured = new HashSet<>();
+
+    private final List<KeySortOrder> keys;
+
+    public CompositeSortOrder(String name, List<KeySortOrder> keys) {
+        super(name);
+        this.keys = List.copyOf(keys);
+    }
+
+    public List<KeySortOrder> getKeys() {
+        return keys;
+    }
+
+    @Override
+    public int[] sort(int[] sortIds, ItemStack[] stacks, SortContext context) {
+        final int slotCount = sortIds.length;
+        final int keyCount = keys.size();
+        
+        // One column per key, then the count, then the slot index, each in
+        // the current order of sortIds
+        int[][] columns = new int[keyCount + 2][];
+        int[] keysByStack = new int[stacks.length];
+        for (int k = 0; k < keyCount; k++) {
+            keys.get(k).extractKeys(stacks, keysByStack, context);
+            int[] column = new int[slotCount];
+            for (int i = 0; i < slotCount; i++) {
+                column[i] = stacks[sortIds[i]].isEmpty()
+                        ? Integer.MAX_VALUE
+                        : keysByStack[sortIds[i]];
+            }
+            columns[k] = column;
+        }
+        // Descending count, with empty stacks last
+        int[] counts = new int[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            ItemStack stack = stacks[sortIds[i]];
+            counts[i] = stack.isEmpty() ? Integer.MAX_VALUE : -stack.getCount();
+        }
+        columns[keyCount] = counts;
+        columns[keyCount + 1] = sortIds;
+        
+        IntArrays.radixSort(columns);
+        
+        // Break ties between non-empty stacks with equal keys
+        int start = 0;
+        for (int i = 1; i <= slotCount; i++) {
+            if (i < slotCount && equalKeys(columns, start, i)) continue;
+            if (i - start > 1 && counts[start] != Integer.MAX_VALUE) {
+                IntArrays.quickSort(sortIds, start, i, (a, b) ->
+                        StackComparison.compareEqualItems(stacks[a], stacks[b]));
+            }
+            start = i;
+        }
+        return sortIds;
+    }
+
+    /**
+     * @return {@code true} if the rows at the specified indices are equal in
+     * all columns except the last.
+     */
+    private static boolean equalKeys(int[][] columns, int a, int b) {
+        for (int k = 0; k < columns.length - 1; k++) {
+            if (columns[k][a] != columns[k][b]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the composite orders registered from the config.
+     * @param definitions the names of the keys of each order, by order name.
+     */
+    public static void registerConfigured(Map<String, List<String>> definitions) {
+        for (String name : configured) {
+            unregister(name);
+        }
+        configured.clear();
+        definitions.forEach((name, keyNames) -> {
+            if (SORT_MODES.containsKey(name)) {
+                MainSort.LOG.warn("Ignoring sort order '{}' as the name is already in use", name);
+                return;
+            }
+            List<KeySortOrder> keys = new ArrayList<>(keyNames.size());
+            for (String keyName : keyNames) {
+                if (SORT_MODES.get(keyName) instanceof KeySortOrder key) {
+                    keys.add(key);
+                } else {
+                    MainSort.LOG.warn("Ignoring unknown sort key '{}' in sort order '{}'",
+                            keyName, name);
+                }
+            }
+            if (keys.isEmpty()) return;
+            register(name, new CompositeSortOrder(name, keys));
+            configured.add(name);
+        });
+    }
+}
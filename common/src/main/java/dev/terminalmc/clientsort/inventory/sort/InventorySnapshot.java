@@ -0,0 +1,191 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.inventory.sort;
+
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.world.inventory.Slot;
+import net.minecraft.world.item.ItemStack;
+
+/**
+ * An immutable snapshot of the contents of a set of slots, held as parallel
+ * primitive arrays.
+ *
+ * <p>The snapshot is captured once per sort on the render thread, and can
+ * then be read from any thread. Snapshot stacks are copies, so planning never
+ * touches client stacks.</p>
+ */
+public final class InventorySnapshot {
+    private static final int EMPTY_ID = -1;
+
+    private final int[] rawIds;
+    private final int[] counts;
+    private final int[] maxStackSizes;
+    // Hash of the component patch of each stack
+    private final int[] componentHashes;
+    // Copies of the stacks, which must not be modified
+    private final ItemStack[] stacks;
+
+    private InventorySnapshot(int[] rawIds, int[] counts, int[] maxStackSizes,
+                              int[] componentHashes, ItemStack[] stacks) {
+        this.rawIds = rawIds;
+        this.counts = counts;
+        this.maxStackSizes = maxStackSizes;
+        this.componentHashes = componentHashes;
+        this.stacks = stacks;
+    }
+
+    /**
+     * Captures the contents of the specified slots.
+     */
+    public static InventorySnapshot capture(Slot[] slots) {
+        final int size = slots.length;
+        int[] rawIds = new int[size];
+        int[] counts = new int[size];
+        int[] maxStackSizes = new int[size];
+        int[] componentHashes = new int[size];
+        ItemStack[] stacks = new ItemStack[size];
+        for (int i = 0; i < size; i++) {
+            ItemStack stack = slots[i].getItem().copy();
+            stacks[i] = stack;
+            if (stack.isEmpty()) {
+                rawIds[i] = EMPTY_ID;
+                continue;
+            }
+            rawIds[i] = BuiltInRegistries.ITEM.getId(stack.getItem());
+            counts[i] = stack.getCount();
+            maxStackSizes[i] = stack.getMaxStackSize();
+            componentHashes[i] = stack.getComponentsPatch().hashCode();
+        }
+        return new InventorySnapshot(rawIds, counts, maxStackSizes, componentHashes, stacks);
+    }
+
+    /**
+     * @return a snapshot of the same stacks with the specified counts. Stacks
+     * with a count of zero become empty.
+     */
+    public InventorySnapshot withCounts(int[] newCounts) {
+        final int size = size();
+        int[] rawIds = this.rawIds.clone();
+        int[] counts = newCounts.clone();
+        ItemStack[] stacks = this.stacks.clone();
+        for (int i = 0; i < size; i++) {
+            if (counts[i] == this.counts[i]) continue;
+            if (counts[i] <= 0) {
+                rawIds[i] = EMPTY_ID;
+                counts[i] = 0;
+                stacks[i] = ItemStack.EMPTY;
+            } else {
+                stacks[i] = this.stacks[i].copyWithCount(counts[i]);
+            }
+        }
+        return new InventorySnapshot(rawIds, counts, maxStackSizes, componentHashes, stacks);
+    }
+
+    public int size() {
+        return rawIds.length;
+    }
+
+    public boolean isEmpty(int slot) {
+        return rawIds[slot] == EMPTY_ID;
+    }
+
+    /**
+     * @return the raw item id of the stack in the specified slot, or
+     * {@code -1} if the slot is empty.
+     */
+    public int rawId(int slot) {
+        return rawIds[slot];
+    }
+
+    public int count(int slot) {
+        return counts[slot];
+    }
+
+    public int maxStackSize(int slot) {
+        return maxStackSizes[slot];
+    }
+
+    public int componentHash(int slot) {
+        return componentHashes[slot];
+    }
+
+    /**
+     * @return the copy of the stack in the specified slot, which must not be
+     * modified.
+     */
+    public ItemStack stack(int slot) {
+        return stacks[slot];
+    }
+
+    /**
+     * @return the copies of all stacks, which must not be modified.
+     */
+    ItemStack[] stacks() {
+        return stacks;
+    }
+
+    /**
+     * @return {@code true} if the stacks in the specified slots are the same
+     * item with the same components. Empty slots never match.
+     */
+    public boolean isSameItemSameComponents(int a, int b) {
+        return isSameItemSameComponents(a, this, b);
+    }
+
+    /**
+     * @return {@code true} if the stack in slot {@code a} of this snapshot and
+     * the stack in slot {@code b} of the other snapshot are the same item with
+     * the same components. Empty slots never match.
+     */
+    public boolean isSameItemSameComponents(int a, InventorySnapshot other, int b) {
+        return rawIds[a] == other.rawIds[b]
+                && rawIds[a] != EMPTY_ID
+                && componentHashes[a] == other.componentHashes[b]
+                && (stacks[a] == other.stacks[b] || stacks[a].getComponentsPatch()
+                        .equals(other.stacks[b].getComponentsPatch()));
+    }
+
+    /**
+     * @return {@code true} if the stacks in the specified slots are both
+     * empty, or are the same item with the same components and count.
+     */
+    public boolean isInterchangeable(int a, int b) {
+        return isInterchangeable(a, this, b);
+    }
+
+    /**
+     * @return {@code true} if the stack in slot {@code a} of this snapshot and
+     * the stack in slot {@code b} of the other snapshot are both empty, or are
+     * the same item with the same components and count.
+     */
+    public boolean isInterchangeable(int a, InventorySnapshot other, int b) {
+        if (isEmpty(a) || other.isEmpty(b)) return isEmpty(a) == other.isEmpty(b);
+        return counts[a] == other.counts[b] && isSameItemSameComponents(a, other, b);
+    }
+
+    /**
+     * @return {@code true} if the contents of any of the specified slots
+     * differ from this snapshot.
+     */
+    public boolean differsFrom(Slot[] slots) {
+        for (int i = 0; i < slots.length; i++) {
+            if (!ItemStack.matches(slots[i].getItem(), stacks[i])) return true;
+        }
+        return false;
+    }
+}
@@ -19,31 +19,78 @@ package dev.terminalmc.clientsort.inventory.sort;
 
 import dev.terminalmc.clientsort.compat.itemlocks.ItemLocksWrapper;
 import dev.terminalmc.clientsort.inventory.ContainerScreenHelper;
+import dev.terminalmc.clientsort.main.MainSort;
 import dev.terminalmc.clientsort.main.network.SortPayload;
 import dev.terminalmc.clientsort.network.InteractionManager;
 import dev.terminalmc.clientsort.platform.Services;
 import dev.terminalmc.clientsort.util.SoundManager;
 import dev.terminalmc.clientsort.util.inject.ISlot;
+import dev.terminalmc.clientsort.util.item.CreativeSearchOrder;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.screens.inventory.AbstractContainerScreen;
-import net.minecraft.world.inventory.ClickType;
+import net.minecraft.locale.Language;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.inventory.Slot;
-import net.minecraft.world.item.*;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static dev.terminalmc.clientsort.config.Config.options;
 
 /**
  * Manages inventory sorting actions.
+ * 
+ * <p>The slot snapshot is taken, the sorted layout is decided and the way of
+ * applying it is chosen on the render thread, as sort orders and screen
+ * helpers may read render thread state. Only combining stacks and planning
+ * and verifying the clicks run on a worker thread, which reads no client
+ * state other than the slot rules listed in {@link ClickSimulator}. The
+ * resulting actions are dispatched back on the render thread, unless the
+ * slots have changed in the meantime.</p>
+ *
+ * <p>Every way of applying a sort is planned as a {@link SortPlan}, which is
+ * optimized and then lowered to interaction events.</p>
  */
 public class InventorySorter {
+    private static final ExecutorService planner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, MainSort.MOD_NAME + ": sort planner");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Generation of the most recently requested sort
+    private static final AtomicInteger sortGeneration = new AtomicInteger();
+    
+    // Fingerprints of the layouts most recently produced by sorting
+    private static final int SORTED_LAYOUTS_SIZE = 16;
+    private static final Map<LayoutKey, Long> sortedLayouts =
+            new LinkedHashMap<>(SORTED_LAYOUTS_SIZE, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<LayoutKey, Long> eldest) {
+                    return size() > SORTED_LAYOUTS_SIZE;
+                }
+            };
+    
     private final ContainerScreenHelper<? extends AbstractContainerScreen<?>> screenHelper;
     private final AbstractContainerScreen<?> containerScreen;
     private final Slot[] inventorySlots;
-    private final ItemStack[] stacks;
+    // Contents of the slots when the sort was requested
+    private final InventorySnapshot snapshot;
+    // Copies of the hotbar contents when the sort was requested, if stacks
+    // may be moved with hotbar swaps
+    private final @Nullable ItemStack[] hotbar;
+    // Actions to run on the render thread once planning is complete
+    private final List<Runnable> actions = new ArrayList<>();
 
     public InventorySorter(
             ContainerScreenHelper<? extends AbstractContainerScreen<?>> screenHelper,
@@ -56,11 +103,22 @@ public class InventorySorter {
         // Collect valid slots
         this.inventorySlots = collectSlots(originSlot);
 
-        // Create and populate itemStack array from valid slots
-        this.stacks = new ItemStack[inventorySlots.length];
-        for (int i = 0; i < inventorySlots.length; i++) {
-            stacks[i] = inventorySlots[i].getItem();
+        // Snapshot the contents of the valid slots
+        this.snapshot = InventorySnapshot.capture(inventorySlots);
+        this.hotbar = options().hotbarSwapSorting && screenHelper.supportsHotbarSwap()
+                ? captureHotbar() : null;
+    }
+
+    /**
+     * @return copies of the stacks in the player's hotbar.
+     */
+    private static ItemStack[] captureHotbar() {
+        Inventory inventory = Minecraft.getInstance().player.getInventory();
+        ItemStack[] stacks = new ItemStack[Inventory.getSelectionSize()];
+        for (int i = 0; i < stacks.length; i++) {
+            stacks[i] = inventory.getItem(i).copy();
         }
+        return stacks;
     }
 
     /**
@@ -85,67 +143,170 @@ public class InventorySorter {
     }
 
     /**
-     * Stacks stackable items into the smallest possible number of slots.
+     * Groups the partial stacks that can be combined with each other, in a
+     * single pass over the slots. Stacks are grouped by item and component
+     * fingerprint, and groups sharing a fingerprint are told apart by
+     * comparing components.
+     * @return the groups, each listing its slots in ascending order.
      */
-    private void combineStacks() {
-        ItemStack stack;
-        ArrayDeque<InteractionManager.InteractionEvent> clickEvents = new ArrayDeque<>();
-        // Work backwards from the end, looking for a partial stack
-        for (int i = stacks.length - 1; i >= 0; i--) {
-            stack = stacks[i];
-            if (stack.isEmpty()) continue;
-            int stackSize = stack.getCount();
-            if (stackSize >= stack.getItem().getDefaultMaxStackSize()) continue;
-            // Partial stack found, pick it up
-            clickEvents.add(screenHelper.createClickEvent(
-                    inventorySlots[i], 0, ClickType.PICKUP, false));
-            // Work forwards from the start, looking for another partial stack
-            // of the same item
-            for (int j = 0; j < i; j++) {
-                ItemStack target = stacks[j];
-                if (target.isEmpty()) continue;
-                if (target.getCount() >= target.getItem().getDefaultMaxStackSize()) continue;
-                if (ItemStack.isSameItemSameComponents(stack, target)) {
-                    // Matching partial stack found, click on it to place as
-                    // much of the carried stack as possible
-                    clickEvents.add(screenHelper.createClickEvent(
-                            inventorySlots[j], 0, ClickType.PICKUP, false));
-                    // Check how many items would be placed by the click, and
-                    // update logical record
-                    int delta = target.getItem().getDefaultMaxStackSize() - target.getCount();
-                    delta = Math.min(delta, stackSize);
-                    stackSize -= delta;
-                    target.setCount(target.getCount() + delta);
-                    // If no items remain in the carried stack, stop looking
-                    if (stackSize <= 0) break;
-                    // Otherwise keep looking for another matching stack
+    private List<IntArrayList> groupPartialStacks() {
+        Long2ObjectOpenHashMap<List<IntArrayList>> groupsByFingerprint =
+                new Long2ObjectOpenHashMap<>();
+        List<IntArrayList> groups = new ArrayList<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.isEmpty(i) || snapshot.count(i) >= snapshot.maxStackSize(i)) continue;
+            List<IntArrayList> candidates = groupsByFingerprint.computeIfAbsent(
+                    itemFingerprint(snapshot, i), k -> new ArrayList<>(1));
+            IntArrayList group = null;
+            for (IntArrayList candidate : candidates) {
+                if (snapshot.isSameItemSameComponents(candidate.getInt(0), i)) {
+                    group = candidate;
+                    break;
                 }
             }
-            // If no matching partial stacks were found, don't bother picking
-            // up the stack in the first place
-            if (clickEvents.size() <= 1) {
-                clickEvents.clear();
-                continue;
+            if (group == null) {
+                group = new IntArrayList();
+                candidates.add(group);
+                groups.add(group);
             }
-            // Send all click events
-            InteractionManager.pushAll(clickEvents);
-            InteractionManager.triggerSend(InteractionManager.TriggerType.GUI_CONFIRM);
-            clickEvents.clear();
-            // Check whether any items are still being carried
-            if (stackSize > 0) {
-                // Place the carried items back down in their original slot
-                InteractionManager.push(screenHelper.createClickEvent(
-                        inventorySlots[i], 0, ClickType.PICKUP, false));
-                stack.setCount(stackSize);
-            } else {
-                // Mark the slot as empty
-                stacks[i] = ItemStack.EMPTY;
+            group.add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * Stacks the partial stacks of each group into the smallest possible
+     * number of slots.
+     * 
+     * <p>Within each group, stacks are taken from the end of the group to
+     * fill the slots at the start, so each source stack is picked up once.</p>
+     * @param counts the stack counts, which are updated with the result.
+     * @param merges the list to add the required merge operations to, or
+     *               {@code null}.
+     */
+    private void combineStacks(List<IntArrayList> groups, int[] counts,
+                               @Nullable List<SortPlan.Merge> merges) {
+        for (IntArrayList group : groups) {
+            int first = 0;
+            int last = group.size() - 1;
+            while (first < last) {
+                // Pick up the last partial stack, and use it to fill the first
+                int source = group.getInt(last);
+                int carried = counts[source];
+                IntArrayList targets = new IntArrayList();
+                while (first < last && carried > 0) {
+                    int target = group.getInt(first);
+                    targets.add(target);
+                    int delta = Math.min(snapshot.maxStackSize(target) - counts[target], carried);
+                    counts[target] += delta;
+                    carried -= delta;
+                    if (counts[target] >= snapshot.maxStackSize(target)) first++;
+                }
+                if (merges != null) {
+                    // Place any remainder back down in its original slot
+                    merges.add(new SortPlan.Merge(source, targets.toIntArray(), carried > 0));
+                }
+                counts[source] = carried;
+                if (carried == 0) last--;
+            }
+        }
+    }
+
+    /**
+     * Reorders each group so that slots which the sorted layout fills with a
+     * stack of the same group come first. Combining then fills those slots,
+     * so that the combined stacks need not move again.
+     * @param sorted the layout that the sort was computed from.
+     * @param sortIds the sorted slot ordering.
+     */
+    private void preferSortedSlots(List<IntArrayList> groups, InventorySnapshot sorted,
+                                   int[] sortIds) {
+        for (IntArrayList group : groups) {
+            IntArrayList reordered = new IntArrayList(group.size());
+            for (int i = 0; i < group.size(); i++) {
+                int slot = group.getInt(i);
+                if (snapshot.isSameItemSameComponents(slot, sorted, sortIds[slot])) {
+                    reordered.add(slot);
+                }
+            }
+            for (int i = 0; i < group.size(); i++) {
+                int slot = group.getInt(i);
+                if (!snapshot.isSameItemSameComponents(slot, sorted, sortIds[slot])) {
+                    reordered.add(slot);
+                }
             }
+            group.clear();
+            group.addAll(reordered);
+        }
+    }
+
+    /**
+     * Maps each slot to a slot of the combined layout holding a stack
+     * interchangeable with the one the sorted layout puts there. Stacks
+     * already in place stay there, and the rest are matched in slot order.
+     * @param combined the contents of the slots after combining.
+     * @param sorted the layout that the sort was computed from.
+     * @param sortIds the sorted slot ordering.
+     * @return the slot ordering that produces the sorted layout from the
+     * combined layout.
+     */
+    private static int[] matchLayout(InventorySnapshot combined, InventorySnapshot sorted,
+                                     int[] sortIds) {
+        final int size = combined.size();
+        int[] moveIds = new int[size];
+        boolean[] matched = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            if (combined.isInterchangeable(i, sorted, sortIds[i])) {
+                moveIds[i] = i;
+                matched[i] = true;
+            }
+        }
+        
+        // Pool the remaining slots by stack fingerprint, in descending slot
+        // order so that the lowest slot can be taken from the end
+        Long2ObjectOpenHashMap<IntArrayList> pools = new Long2ObjectOpenHashMap<>();
+        for (int i = size - 1; i >= 0; i--) {
+            if (matched[i]) continue;
+            pools.computeIfAbsent(stackFingerprint(combined, i), k -> new IntArrayList()).add(i);
+        }
+        for (int i = 0; i < size; i++) {
+            if (matched[i]) continue;
+            int wanted = sortIds[i];
+            IntArrayList pool = pools.get(stackFingerprint(sorted, wanted));
+            int k = pool == null ? -1 : pool.size() - 1;
+            while (k >= 0 && !combined.isInterchangeable(pool.getInt(k), sorted, wanted)) k--;
+            if (k < 0) {
+                throw new IllegalStateException("Combined stacks do not match the sorted layout");
+            }
+            moveIds[i] = pool.removeInt(k);
+        }
+        return moveIds;
+    }
+
+    private static long itemFingerprint(InventorySnapshot layout, int slot) {
+        return ((long) layout.rawId(slot) << 32) | (layout.componentHash(slot) & 0xFFFFFFFFL);
+    }
+
+    private static long stackFingerprint(InventorySnapshot layout, int slot) {
+        if (layout.isEmpty(slot)) return Long.MIN_VALUE;
+        return itemFingerprint(layout, slot) * 31 + layout.count(slot);
+    }
+
+    private int[] counts() {
+        int[] counts = new int[snapshot.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = snapshot.count(i);
         }
+        return counts;
     }
 
     /**
      * Sorts the inventory in the specified order according to mod settings.
+     * 
+     * <p>The sorted layout is decided on the calling thread, which must be
+     * the render thread. Slots that the screen can set directly are set
+     * immediately. Otherwise, planning runs asynchronously, and supersedes
+     * any sort that has not yet been dispatched.</p>
      */
     public void sort(SortOrder sortOrder) {
         // Check that we actually have something to do
@@ -153,226 +314,430 @@ public class InventorySorter {
             return;
         }
 
-        // Combine all partial stacks
-        combineStacks();
+        LayoutKey layoutKey = new LayoutKey(containerScreen.getMenu().getClass(),
+                containerScreen.getMenu().containerId,
+                ((ISlot) inventorySlots[0]).clientSort$getIdInContainer());
+        int generation = sortGeneration.incrementAndGet();
+        Player player = Minecraft.getInstance().player;
+        SortedLayout layout;
+        try {
+            layout = sortLayout(sortOrder, layoutKey);
+            if (layout == null) return;
+            
+            // Write the sorted layout without clicking, if the screen allows it
+            if (sortBySetting(layout.sorted(), layout.sortIds(), player)) {
+                if (!actions.isEmpty()) dispatch(generation, layoutKey);
+                return;
+            }
+        } catch (Exception e) {
+            MainSort.LOG.error("Unable to sort", e);
+            forgetLayout(layoutKey);
+            return;
+        }
+        PlanContext context = new PlanContext(player,
+                options().serverAcceleratedSorting
+                        && Services.PLATFORM.canSendToServer(SortPayload.TYPE)
+                        ? serverSlotIds() : null);
+        
+        planner.execute(() -> {
+            if (generation != sortGeneration.get()) return;
+            try {
+                plan(layout, context);
+            } catch (Exception e) {
+                MainSort.LOG.error("Unable to plan sort", e);
+                forgetLayout(layoutKey);
+                return;
+            }
+            if (actions.isEmpty()) return;
+            Minecraft.getInstance().execute(() -> dispatch(generation, layoutKey));
+        });
+    }
+
+    /**
+     * @return the container slot id of each slot, as the server expects it.
+     */
+    private int[] serverSlotIds() {
+        int[] slotIds = new int[inventorySlots.length];
+        for (int i = 0; i < slotIds.length; i++) {
+            slotIds[i] = ((ISlot) inventorySlots[i]).clientSort$getIdInContainer();
+        }
+        screenHelper.translateSlotMapping(slotIds);
+        return slotIds;
+    }
+
+    private static void forgetLayout(LayoutKey layoutKey) {
+        synchronized (sortedLayouts) {
+            sortedLayouts.remove(layoutKey);
+        }
+    }
+
+    /**
+     * Decides the sorted layout, as if all partial stacks were combined into
+     * the first slots of their groups.
+     * 
+     * <p>This runs on the render thread, as sort orders may read state that
+     * only the render thread may access.</p>
+     * @return the sorted layout, or {@code null} if the layout is the result
+     * of a recent sort.
+     */
+    private @Nullable SortedLayout sortLayout(SortOrder sortOrder, LayoutKey layoutKey) {
+        // Skip everything if this layout is the result of a recent sort
+        long epoch = orderEpoch();
+        Long sortedFingerprint;
+        synchronized (sortedLayouts) {
+            sortedFingerprint = sortedLayouts.get(layoutKey);
+        }
+        if (sortedFingerprint != null
+                && sortedFingerprint == fingerprint(sortOrder, epoch, snapshot, null)) {
+            MainSort.LOG.debug("Layout already sorted by {}, skipping", sortOrder.name);
+            return null;
+        }
+
+        List<IntArrayList> groups = groupPartialStacks();
+        int[] counts = counts();
+        combineStacks(groups, counts, null);
+        InventorySnapshot combined = snapshot.withCounts(counts);
         
         // Create an array of ascending slot numbers
-        int[] sortIds = new int[stacks.length];
+        int[] sortIds = new int[combined.size()];
         for (int i = 0; i < sortIds.length; i++) {
             sortIds[i] = i;
         }
         // Sort the array of slot numbers to make a sorting 'key'
         SortContext context = new SortContext(containerScreen, Arrays.asList(inventorySlots));
-        sortIds = sortOrder.sort(sortIds, stacks, context);
+        sortIds = sortOrder.sort(sortIds, combined.stacks(), context);
+        minimizeDisplacement(combined, sortIds);
+        
+        // Remember the layout that the sort will produce
+        synchronized (sortedLayouts) {
+            sortedLayouts.put(layoutKey, fingerprint(sortOrder, epoch, combined, sortIds));
+        }
+        return new SortedLayout(groups, combined, sortIds);
+    }
+
+    /**
+     * Plans the actions required to apply the sorted layout.
+     * 
+     * <p>Partial stacks are combined into the slots where the sorted layout
+     * wants them, so that combining and sorting form a single stream of
+     * clicks.</p>
+     * 
+     * <p>This runs on the planner thread.</p>
+     */
+    private void plan(SortedLayout layout, PlanContext context) {
+        List<IntArrayList> groups = layout.groups();
+        InventorySnapshot combined = layout.sorted();
+        int[] sortIds = layout.sortIds();
         
-        if (options().serverAcceleratedSorting && Services.PLATFORM.canSendToServer(SortPayload.TYPE)) {
-            // Send the key off to the server
-            sortOnServer(sortIds);
+        // Combine partial stacks into the slots where the sorted layout wants
+        // them, and work out where the combined stacks must move
+        InventorySnapshot sorted = combined;
+        preferSortedSlots(groups, sorted, sortIds);
+        int[] counts = counts();
+        List<SortPlan.Merge> merges = new ArrayList<>();
+        combineStacks(groups, counts, merges);
+        combined = snapshot.withCounts(counts);
+        sortIds = matchLayout(combined, sorted, sortIds);
+        
+        // Skip moving stacks if the layout is already sorted
+        if (merges.isEmpty() && isIdentity(sortIds)) {
+            MainSort.LOG.debug("Layout already sorted, skipping");
+            return;
+        }
+        
+        if (context.serverSlotIds() != null) {
+            // Combine stacks with clicks, then send the key off to the server
+            sortOnServer(merges, combined, sortIds, context);
         } else {
             // Use click events to sort the inventory according to the key
             boolean playSound = options().soundEnabled && options().soundVolume > 0;
-            if (playSound) SoundManager.resetForCount(estimateMaxSounds());
-            this.sortOnClient(sortIds, playSound);
+            this.sortOnClient(merges, combined, sortIds, context, playSound);
         }
     }
 
     /**
-     * Delegates sorting to the server.
+     * Runs the planned actions, unless the plan has been superseded or the
+     * slots have changed since the snapshot was taken.
      */
-    protected void sortOnServer(int[] sortedIds) {
-        // Translate the key into a series of swap instructions
-        int[] slotMapping = new int[sortedIds.length * 2];
-        for (int i = 0; i < sortedIds.length; i++) {
-            Slot from = inventorySlots[sortedIds[i]];
-            Slot to = inventorySlots[i];
-            slotMapping[i * 2] = ((ISlot) from).clientSort$getIdInContainer();
-            slotMapping[i * 2 + 1] = ((ISlot) to).clientSort$getIdInContainer();
-        }
-        screenHelper.translateSlotMapping(slotMapping);
-        
-        // Send the instructions to the server
-        InteractionManager.push(() -> {
-            Services.PLATFORM.sendToServer(
-                    new SortPayload(containerScreen.getMenu().containerId, slotMapping));
-            return InteractionManager.TICK_WAITER;
-        });
+    private void dispatch(int generation, LayoutKey layoutKey) {
+        if (generation != sortGeneration.get() || isStale()) {
+            MainSort.LOG.debug("Discarding stale sort plan");
+            forgetLayout(layoutKey);
+            return;
+        }
+        for (Runnable action : actions) {
+            action.run();
+        }
     }
 
     /**
-     * Estimates the maximum number of sounds for the sort.
-     * 
-     * <p>Ideally pitch should reach maximum as sorting finishes, so we do a
-     * quick calculation to roughly guess the number of sounds (and thus, the
-     * number of pitch increments) needed.</p>
+     * @return {@code true} if the screen has closed or the contents of any
+     * slot or hotbar slot differ from the snapshot.
      */
-    private int estimateMaxSounds() {
-        // Count non-empty stacks; assume all these require sorting
-        int stackCount = 0;
-        for (ItemStack stack : stacks) {
-            if (stack != ItemStack.EMPTY) {
-                stackCount++;
-            }
+    private boolean isStale() {
+        if (Minecraft.getInstance().screen != containerScreen
+                || snapshot.differsFrom(inventorySlots)) {
+            return true;
         }
-        // Count 'holes' that will require filling
-        int compaction = 0;
-        for (int i = 0; i < stackCount; i++) {
-            if (stacks[i] == ItemStack.EMPTY) {
-                compaction++;
+        if (hotbar != null) {
+            Inventory inventory = Minecraft.getInstance().player.getInventory();
+            for (int i = 0; i < hotbar.length; i++) {
+                if (!ItemStack.matches(inventory.getItem(i), hotbar[i])) return true;
             }
         }
-        int size = stackCount + compaction;
-        
-        // Compensate for a small percentage of swaps requiring multiple clicks
-        size += size / 15;
-        
-        return size;
+        return false;
     }
 
     /**
-     * Uses mouse click events to sort the inventory according to the key array.
+     * Clears the record of recently sorted layouts.
      */
-    protected void sortOnClient(int[] sortedIds, boolean playSound) {
-        ItemStack currentStack;
-        final int slotCount = stacks.length;
-
-        // sortedIds maps the slot index (the target id) to which slot's
-        // contents should be moved there (the origin id). 
-        // Copy this data into a full-sized array.
-        int[] origin2Target = new int[slotCount];
-        for (int i = 0; i < origin2Target.length; i++) {
-            origin2Target[sortedIds[i]] = i;
-        }
-
-        // This is a combined bitset to save whether each slot is done or empty.
-        // It consists of all bits for the done states in the first half and
-        // the empty states in the second half.
-        BitSet doneOrEmpty = new BitSet(slotCount * 2);
-        // Iterate all slots to set up the state bit set
-        for (int i = 0; i < slotCount; i++) {
-            // If the target slot is equal to the origin,
-            if (i == sortedIds[i]) {
-                // then we're done with that slot already.
-                doneOrEmpty.set(i);
-                continue;
-            }
-            // Mark if it's empty
-            if (stacks[i].isEmpty()) doneOrEmpty.set(slotCount + i);
-        }
-
-        // Bundles require special handling. Specifically, to perform a swap 
-        // between the carried item and the target slot, you normally must use
-        // left-click (0), but if holding a bundle you must use right-click (1).
-        // The current workaround is to maintain a copy of the theoretical
-        // inventory state to inform the click decision. This will break if
-        // items enter or leave the inventory unexpectedly.
-        Item carriedItem = Items.AIR;
-        Item[] backingStacks = Arrays.stream(stacks.clone()).map(ItemStack::getItem)
-                .toArray(Item[]::new);
-
-        // Iterate all slots, with i as the target slot index
-        // sortedIds[i] is therefore the origin slot
-        for (int i = 0; i < slotCount; i++) {
-            // Check if we're already done
-            if (doneOrEmpty.get(i)) {
-                continue; // Skip
+    public static void clearSortedLayouts() {
+        synchronized (sortedLayouts) {
+            sortedLayouts.clear();
+        }
+    }
+
+    /**
+     * @return a value that changes whenever a sort order may order the same
+     * stacks differently, because the creative search order was republished
+     * or its build started, or the language or resources were reloaded.
+     */
+    private static long orderEpoch() {
+        long epoch = CreativeSearchOrder.getIndex().generation();
+        epoch = epoch * 31 + CreativeSearchOrder.getBuildState().ordinal();
+        // Language instances are replaced on every resource reload
+        epoch = epoch * 31 + System.identityHashCode(Language.getInstance());
+        return epoch;
+    }
+
+    /**
+     * Computes a cheap fingerprint of the slot contents and sort order.
+     * @param sortOrder the order being sorted by.
+     * @param epoch the {@link #orderEpoch()} that the order sorts in.
+     * @param layout the contents of the slots.
+     * @param sortIds the slot ordering to fingerprint the layout with, or
+     *                {@code null} to use the current layout.
+     */
+    private static long fingerprint(SortOrder sortOrder, long epoch, InventorySnapshot layout,
+                                    @Nullable int[] sortIds) {
+        long hash = sortOrder.name.hashCode() * 31L + epoch;
+        for (int i = 0; i < layout.size(); i++) {
+            int slot = sortIds == null ? i : sortIds[i];
+            hash = hash * 31 + layout.rawId(slot);
+            hash = hash * 31 + layout.componentHash(slot);
+            hash = hash * 31 + layout.count(slot);
+        }
+        return hash;
+    }
+
+    /**
+     * @return {@code true} if applying the specified slot ordering would not
+     * move any stack.
+     */
+    private static boolean isIdentity(int[] sortIds) {
+        for (int i = 0; i < sortIds.length; i++) {
+            if (sortIds[i] != i) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reassigns interchangeable stacks within each run of the slot ordering,
+     * so that stacks already in one of their run's target slots stay there,
+     * and the rest move to the nearest remaining targets.
+     */
+    private static void minimizeDisplacement(InventorySnapshot layout, int[] sortIds) {
+        int start = 0;
+        while (start < sortIds.length) {
+            int end = start + 1;
+            while (end < sortIds.length
+                    && layout.isInterchangeable(sortIds[start], sortIds[end])) {
+                end++;
             }
-            // Check if the origin is empty
-            if (doneOrEmpty.get(slotCount + sortedIds[i])) {
-                doneOrEmpty.set(sortedIds[i]); // Mark it as done
-                continue; // Skip
+            if (end - start > 1) reassignRun(sortIds, start, end);
+            start = end;
+        }
+    }
+
+    /**
+     * Reassigns the origins of the target slots from {@code start} to
+     * {@code end}, all of which hold interchangeable stacks.
+     */
+    private static void reassignRun(int[] sortIds, int start, int end) {
+        boolean[] stays = new boolean[end - start];
+        int[] moving = new int[end - start];
+        int movingCount = 0;
+        for (int i = start; i < end; i++) {
+            int origin = sortIds[i];
+            if (origin >= start && origin < end) {
+                stays[origin - start] = true;
+            } else {
+                moving[movingCount++] = origin;
             }
+        }
+        // Matching sorted origins to sorted targets minimizes total distance
+        Arrays.sort(moving, 0, movingCount);
+        int next = 0;
+        for (int i = start; i < end; i++) {
+            sortIds[i] = stays[i - start] ? i : moving[next++];
+        }
+    }
 
-            // This is where the action happens.
-            Item temp = backingStacks[sortedIds[i]];
-            backingStacks[sortedIds[i]] = carriedItem;
-            carriedItem = temp;
-            // Pick up the stack at the origin slot.
-            InteractionManager.push(screenHelper.createClickEvent(
-                    inventorySlots[sortedIds[i]], 0, ClickType.PICKUP, playSound));
-            // Mark the origin slot as empty (because we picked the stack up, duh)
-            doneOrEmpty.set(slotCount + sortedIds[i]);
-            // Save the stack we're currently working with
-            currentStack = stacks[sortedIds[i]];
-            // Save a slot that we can use when swapping stacks around
-            Slot workingSlot = inventorySlots[sortedIds[i]];
-            
-            int id = i; // id will reflect the target slot in the following loop
-            do { // This loop follows chained stack moves (e.g. 1->2->5->1)
-                if (
-                        stacks[id].getItem() == currentStack.getItem()
-                        && !doneOrEmpty.get(slotCount + id)
-                        && ItemStack.isSameItemSameComponents(stacks[id], currentStack)
-                ) {
-                    // If the current stack and the target stack are completely
-                    // equal, then we can skip this step in the chain
-                    if (stacks[id].getCount() == currentStack.getCount()) {
-                        doneOrEmpty.set(id); // Mark the current target as done
-                        id = origin2Target[id];
-                        continue;
-                    }
-                    if (currentStack.getCount() < stacks[id].getCount()) {
-                        // Clicking with a low stack on a full stack does
-                        // nothing, so instead we click working slot, target
-                        // slot, working, target, working
-                        Slot targetSlot = inventorySlots[id];
-                        temp = backingStacks[id];
-                        backingStacks[id] = carriedItem;
-                        carriedItem = temp;
-                        InteractionManager.push(screenHelper.createClickEvent(
-                                workingSlot, 0, ClickType.PICKUP, playSound));
-                        InteractionManager.push(screenHelper.createClickEvent(
-                                targetSlot, 0, ClickType.PICKUP, playSound));
-                        InteractionManager.push(screenHelper.createClickEvent(
-                                workingSlot, 0, ClickType.PICKUP, playSound));
-                        InteractionManager.push(screenHelper.createClickEvent(
-                                targetSlot, 0, ClickType.PICKUP, playSound));
-                        InteractionManager.push(screenHelper.createClickEvent(
-                                workingSlot, 0, ClickType.PICKUP, playSound));
-
-                        currentStack = stacks[id];
-                        doneOrEmpty.set(id); // Mark the current target as done
-                        id = origin2Target[id];
-                        continue;
-                    }
-                }
+    /**
+     * Uses mouse click events to combine partial stacks, then delegates
+     * sorting to the server.
+     */
+    protected void sortOnServer(List<SortPlan.Merge> merges, InventorySnapshot combined,
+                                int[] sortedIds, PlanContext context) {
+        List<SortPlan.Op> ops = new ArrayList<>(ClickPlanner.plan(inventorySlots, snapshot,
+                merges, combined, null, null, context.player(), ClickPlanner.CostModel.UNIFORM,
+                options().lmbBundle).ops());
+        if (!isIdentity(sortedIds)) ops.add(SortPlan.ServerMapping.of(sortedIds));
+        execute(new SortPlan(ops), context, false);
+    }
 
-                // Swap the current stack with the target stack, using right
-                // click if required for bundles
-                if (
-                        options().lmbBundle && (
-                            // Clicking on bundle with item,
-                            (backingStacks[id] instanceof BundleItem
-                                    && !(carriedItem instanceof AirItem))
-                            // or clicking on item with bundle
-                            || (carriedItem instanceof BundleItem
-                                    && !(backingStacks[id] instanceof AirItem)))
-                ) {
-                    InteractionManager.push(screenHelper.createClickEvent(
-                            inventorySlots[id], 1, ClickType.PICKUP, playSound));
-                } else {
-                    InteractionManager.push(screenHelper.createClickEvent(
-                            inventorySlots[id], 0, ClickType.PICKUP, playSound));
+    /**
+     * Sets the contents of every slot that changes in the sorted layout
+     * directly, in a single event.
+     * @param sorted the layout that the sort was computed from.
+     * @param sortIds the sorted slot ordering.
+     * @param player the player setting the slots.
+     * @return {@code false} if the screen cannot set the slots directly.
+     */
+    private boolean sortBySetting(InventorySnapshot sorted, int[] sortIds, Player player) {
+        IntArrayList changedSlots = new IntArrayList();
+        List<ItemStack> changedStacks = new ArrayList<>();
+        for (int i = 0; i < sortIds.length; i++) {
+            ItemStack stack = sorted.stack(sortIds[i]);
+            if (ItemStack.matches(snapshot.stack(i), stack)) continue;
+            changedSlots.add(i);
+            changedStacks.add(stack);
+        }
+        if (changedSlots.isEmpty()) {
+            MainSort.LOG.debug("Layout already sorted, skipping");
+            return true;
+        }
+
+        boolean set = execute(new SortPlan(List.of(new SortPlan.SetSlots(
+                changedSlots.toIntArray(), changedStacks.toArray(new ItemStack[0])))),
+                new PlanContext(player, null), false);
+        if (set) {
+            MainSort.LOG.debug("Setting {} of {} slots directly", changedSlots.size(),
+                    sortIds.length);
+        }
+        return set;
+    }
+
+    /**
+     * Uses mouse click events to combine partial stacks, then sort the
+     * inventory according to the key array.
+     */
+    protected void sortOnClient(List<SortPlan.Merge> merges, InventorySnapshot combined,
+                                int[] sortedIds, PlanContext context, boolean playSound) {
+        SortPlan plan = ClickPlanner.plan(inventorySlots, snapshot, merges, combined,
+                sortedIds, hotbar, context.player(), ClickPlanner.CostModel.UNIFORM,
+                options().lmbBundle);
+        MainSort.LOG.debug("Planned {} clicks to sort {} slots", plan.clickCount(),
+                combined.size());
+        execute(plan, context, playSound);
+    }
+
+    /**
+     * Optimizes the plan, and lowers its operations to interaction events,
+     * which are pushed in order once planning is complete.
+     * @return {@code false} if the plan sets slots that the screen cannot set
+     * directly, in which case no actions are added.
+     */
+    private boolean execute(SortPlan plan, PlanContext context, boolean playSound) {
+        SortPlan optimized = SortPlanOptimizer.optimize(plan, inventorySlots, snapshot, hotbar,
+                context.player(), options().lmbBundle);
+        List<Runnable> planned = new ArrayList<>();
+        if (playSound) {
+            // Ideally pitch should reach maximum as sorting finishes
+            int clickCount = optimized.clickCount();
+            planned.add(() -> SoundManager.resetForCount(clickCount));
+        }
+
+        List<InteractionManager.InteractionEvent> events = new ArrayList<>();
+        for (SortPlan.Op op : optimized.ops()) {
+            if (op instanceof SortPlan.SetSlots set) {
+                InteractionManager.InteractionEvent setEvent = createSetSlotsEvent(set);
+                if (setEvent == null) return false;
+                events.add(setEvent);
+            } else if (op instanceof SortPlan.ServerMapping mapping) {
+                if (!events.isEmpty()) {
+                    // Send the clicks before the server moves any stack
+                    pushEvents(planned, events);
+                    planned.add(() -> InteractionManager.triggerSend(
+                            InteractionManager.TriggerType.GUI_CONFIRM));
+                    events = new ArrayList<>();
                 }
-                
-                // Simulate the swap
-                temp = backingStacks[id];
-                backingStacks[id] = carriedItem;
-                carriedItem = temp;
-                currentStack = stacks[id];
-                
-                doneOrEmpty.set(id); // Mark the current target as done
-                
-                // If the target that we just swapped with was empty before,
-                // then this breaks the chain.
-                if (doneOrEmpty.get(slotCount + id)) {
-                    break;
+                events.add(createServerSortEvent(mapping, context));
+            } else {
+                for (ClickPlanner.Click click : op.clicks()) {
+                    events.add(screenHelper.createClickEvent(inventorySlots[click.slot()],
+                            click.button(), click.type(), playSound));
                 }
-                
-                id = origin2Target[id];
-                
-                // If we find a target that is marked as done already, then we
-                // can break the chain.
-            } while (!doneOrEmpty.get(id));
+            }
         }
+        pushEvents(planned, events);
+        actions.addAll(planned);
+        return true;
+    }
+
+    private static void pushEvents(List<Runnable> planned,
+                                   List<InteractionManager.InteractionEvent> events) {
+        if (events.isEmpty()) return;
+        planned.add(() -> InteractionManager.pushAll(events));
     }
+
+    private @Nullable InteractionManager.InteractionEvent createSetSlotsEvent(
+            SortPlan.SetSlots set) {
+        Slot[] slots = new Slot[set.slots().length];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = inventorySlots[set.slots()[i]];
+        }
+        return screenHelper.createSetSlotsEvent(slots, set.stacks());
+    }
+
+    /**
+     * Translates the server mapping into container slot ids, and creates an
+     * event that sends it to the server.
+     */
+    private InteractionManager.InteractionEvent createServerSortEvent(
+            SortPlan.ServerMapping mapping, PlanContext context) {
+        int[] slotMapping = new int[mapping.slotMapping().length];
+        for (int i = 0; i < slotMapping.length; i++) {
+            slotMapping[i] = context.serverSlotIds()[mapping.slotMapping()[i]];
+        }
+        return () -> {
+            Services.PLATFORM.sendToServer(
+                    new SortPayload(containerScreen.getMenu().containerId, slotMapping));
+            return InteractionManager.TICK_WAITER;
+        };
+    }
+
+    /**
+     * A sorted layout, decided as if all partial stacks were combined.
+     * @param groups the groups of partial stacks that can be combined.
+     * @param sorted the contents of the slots after combining.
+     * @param sortIds the sorted slot ordering.
+     */
+    private record SortedLayout(List<IntArrayList> groups, InventorySnapshot sorted,
+                                int[] sortIds) {}
+
+    /**
+     * The client state that planning depends on, read on the render thread
+     * when the sort is requested.
+     * @param player the player performing the sort.
+     * @param serverSlotIds the container slot id of each slot as the server
+     *                      expects it, or {@code null} if the server cannot
+     *                      sort.
+     */
+    protected record PlanContext(Player player, @Nullable int[] serverSlotIds) {}
+
+    /**
+     * Identifies a sortable set of slots in a container menu.
+     */
+    private record LayoutKey(Class<?> menuClass, int containerId, int firstSlotId) {}
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.inventory.sort;
+
+import net.minecraft.world.item.ItemStack;
+
+/**
+ * A {@link SortOrder} defined by a single primitive key per stack.
+ * 
+ * <p>Key sort orders can be used on their own, or chained in a
+ * {@link CompositeSortOrder}. To make a key available to composite orders,
+ * register it with {@link SortOrder#register}.</p>
+ */
+public class KeySortOrder extends SortOrder {
+    private final KeyExtractor extractor;
+
+    public KeySortOrder(String name, KeyExtractor extractor) {
+        super(name);
+        this.extractor = extractor;
+    }
+
+    /**
+     * Writes the key of each non-empty stack to {@code keys}.
+     */
+    public void extractKeys(ItemStack[] stacks, int[] keys, SortContext context) {
+        extractor.extract(stacks, keys, context);
+    }
+
+    @Override
+    public int[] sort(int[] sortIds, ItemStack[] stacks, SortContext context) {
+        int[] keys = new int[stacks.length];
+        extractKeys(stacks, keys, context);
+        sortByValues(sortIds, keys, stacks);
+        return sortIds;
+    }
+
+    /**
+     * Extracts a primitive sort key from each stack.
+     */
+    @FunctionalInterface
+    public interface KeyExtractor {
+        /**
+         * Writes the key of each non-empty stack in {@code stacks} to the same
+         * index of {@code keys}. Stacks with lower keys are sorted first. The
+         * keys of empty stacks are ignored.
+         * @param stacks the stacks being sorted.
+         * @param keys the array to write the keys to.
+         * @param context additional context for the sorting.
+         */
+        void extract(ItemStack[] stacks, int[] keys, SortContext context);
+    }
+}
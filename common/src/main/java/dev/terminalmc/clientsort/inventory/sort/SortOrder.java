@@ -18,19 +18,21 @@
 package dev.terminalmc.clientsort.inventory.sort;
 
 import dev.terminalmc.clientsort.config.Config;
+import dev.terminalmc.clientsort.util.item.CollationKeyCache;
 import dev.terminalmc.clientsort.util.item.CreativeSearchOrder;
 import dev.terminalmc.clientsort.util.item.StackComparison;
-import dev.terminalmc.clientsort.util.item.StackMatcher;
 import it.unimi.dsi.fastutil.ints.IntArrays;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMaps;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.world.item.CreativeModeTabs;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
 
+import java.text.CollationKey;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
 
 /**
  * Defines sorting comparators.
@@ -49,7 +51,6 @@ public abstract class SortOrder {
         return sortOrder;
     }
 
-    @SuppressWarnings("unused")
     public static void unregister(String name) {
         SORT_MODES.remove(name);
     }
@@ -63,6 +64,10 @@ public abstract class SortOrder {
     /**
      * Sorts the given slot ids using the given stacks in the slots. Sorting may
      * be done in place.
+     * 
+     * <p>This is always called on the render thread, so it may read client
+     * state such as tooltips, hover names and creative tab contents. The
+     * stacks are copies, and must not be modified.</p>
      * @param sortIds an array of the current slot indices
      * @param stacks the stacks in the respective slots
      * @param context additional context for the sorting
@@ -72,18 +77,53 @@ public abstract class SortOrder {
         return sortIds;
     }
 
+    /**
+     * The key of an empty stack, which sorts after all other keys.
+     */
+    protected static final long EMPTY_KEY = Long.MAX_VALUE;
+
+    /**
+     * Packs a primary sort value and a stack count into a single key, which
+     * orders by ascending value, then by descending count.
+     */
+    protected static long packKey(int value, int count) {
+        return ((long) value << 32) | (Integer.MAX_VALUE - count);
+    }
+
     /**
      * Sorts {@code sortIds} by comparing the elements of {@code values},
      * falling back to comparing elements of {@code stacks} if necessary.
      */
-    private static void sortByValues(int[] sortIds, int[] values, ItemStack[] stacks) {
-        IntArrays.quickSort(sortIds, (a, b) -> {
-            int cmp = Integer.compare(values[a], values[b]);
-            if (cmp != 0) {
-                return cmp;
+    protected static void sortByValues(int[] sortIds, int[] values, ItemStack[] stacks) {
+        long[] keys = new long[stacks.length];
+        for (int i = 0; i < stacks.length; i++) {
+            ItemStack stack = stacks[i];
+            keys[i] = stack.isEmpty() ? EMPTY_KEY : packKey(values[i], stack.getCount());
+        }
+        sortByKeys(sortIds, keys, stacks);
+    }
+
+    /**
+     * Sorts {@code sortIds} by comparing the elements of {@code keys}, falling
+     * back to comparing elements of {@code stacks} only for runs of equal
+     * keys.
+     * 
+     * <p>Keys are extracted once per stack, so the bulk of the work is a
+     * primitive radix sort rather than a comparator sort.</p>
+     */
+    protected static void sortByKeys(int[] sortIds, long[] keys, ItemStack[] stacks) {
+        LongArrays.radixSortIndirect(sortIds, keys, true);
+        
+        // Break ties between non-empty stacks with equal keys
+        int start = 0;
+        for (int i = 1; i <= sortIds.length; i++) {
+            if (i < sortIds.length && keys[sortIds[i]] == keys[sortIds[start]]) continue;
+            if (i - start > 1 && keys[sortIds[start]] != EMPTY_KEY) {
+                IntArrays.quickSort(sortIds, start, i, (a, b) ->
+                        StackComparison.compareEqualItems(stacks[a], stacks[b]));
             }
-            return StackComparison.compareEqualItems(stacks[a], stacks[b]);
-        });
+            start = i;
+        }
     }
 
     static {
@@ -91,124 +131,87 @@ public abstract class SortOrder {
         NONE = register("none", new SortOrder("none") {});
         
         // Alphabetical order of stack name
-        ALPHABET = register("alphabet", new SortOrder("alphabet") {
-            @Override
-            public int[] sort(int[] sortIds, ItemStack[] stacks, SortContext context) {
-                String[] strings = new String[sortIds.length];
-                for (int i = 0; i < sortIds.length; i++) {
-                    ItemStack stack = stacks[i];
-                    strings[i] = stack.isEmpty() ? "" : stack.getHoverName().getString();
+        ALPHABET = register("alphabet", new KeySortOrder("alphabet", (stacks, keys, context) -> {
+            CollationKey[] names = CollationKeyCache.getKeys(stacks);
+            int nameCount = 0;
+            for (CollationKey name : names) {
+                if (name != null) nameCount++;
+            }
+            
+            // Rank the distinct names, so that each stack only needs a
+            // primitive key
+            CollationKey[] ranked = new CollationKey[nameCount];
+            nameCount = 0;
+            for (CollationKey name : names) {
+                if (name != null) ranked[nameCount++] = name;
+            }
+            Arrays.sort(ranked);
+            int distinctCount = 0;
+            for (CollationKey name : ranked) {
+                if (distinctCount == 0 || ranked[distinctCount - 1].compareTo(name) != 0) {
+                    ranked[distinctCount++] = name;
                 }
-
-                IntArrays.quickSort(sortIds, (a, b) -> {
-                    if (strings[a].isEmpty()) {
-                        if (strings[b].isEmpty())
-                            return 0;
-                        return 1;
-                    }
-                    if (strings[b].isEmpty()) return -1;
-                    int comp = strings[a].compareToIgnoreCase(strings[b]);
-                    if (comp == 0) {
-                        return StackComparison.compareEqualItems(stacks[a], stacks[b]);
-                    }
-                    return comp;
-                });
-
-                return sortIds;
             }
-        });
+            
+            for (int i = 0; i < stacks.length; i++) {
+                if (names[i] == null) continue;
+                keys[i] = Arrays.binarySearch(ranked, 0, distinctCount, names[i]);
+            }
+        }));
         
         // Creative search order
-        CREATIVE = register("creative", new SortOrder("creative") {
-            @Override
-            public int[] sort(int[] sortIds, ItemStack[] stacks, SortContext context) {
-                int[] sortValues = new int[sortIds.length];
-                if (Config.options().optimizedCreativeSorting) {
-                    Lock lock = CreativeSearchOrder.getReadLock();
-                    lock.lock();
-                    for (int i = 0; i < stacks.length; i++) {
-                        sortValues[i] = CreativeSearchOrder.getPosition(stacks[i]);
-                    }
-                    lock.unlock();
-                } else {
-                    Collection<ItemStack> displayStacks =
-                            CreativeModeTabs.searchTab().getDisplayItems();
-                    List<ItemStack> displayStackList;
-                    if (displayStacks instanceof List) {
-                        displayStackList = (List<ItemStack>) displayStacks;
-                    } else {
-                        displayStackList = new ArrayList<>(displayStacks);
-                    }
-                    Object2IntMap<StackMatcher> lookup = new Object2IntOpenHashMap<>(stacks.length);
-                    for (int i = 0; i < stacks.length; i++) {
-                        final ItemStack stack = stacks[i];
-                        sortValues[i] = lookup.computeIfAbsent(StackMatcher.of(stack), matcher -> {
-                            @SuppressWarnings("SuspiciousMethodCalls")
-                            int index = displayStackList.indexOf(matcher);
-                            if (index != -1) return index;
-                            return lookup.computeIfAbsent(StackMatcher.ignoreNbt(stack), 
-                                    altMatcher -> {
-                                        @SuppressWarnings("SuspiciousMethodCalls")
-                                        int plainIndex = displayStackList.indexOf(altMatcher);
-                                        if (plainIndex == -1) return Integer.MAX_VALUE;
-                                        return plainIndex;
-                                    });
-                        });
-                    }
-                }
-                SortOrder.sortByValues(sortIds, sortValues, stacks);
-                return sortIds;
+        CREATIVE = register("creative", new KeySortOrder("creative", (stacks, keys, context) -> {
+            // While the index is being rebuilt, the search tab contents are
+            // already up to date, so use them directly
+            CreativeSearchOrder.Index index;
+            if (Config.options().optimizedCreativeSorting
+                    && CreativeSearchOrder.getBuildState()
+                    != CreativeSearchOrder.BuildState.BUILDING) {
+                index = CreativeSearchOrder.getIndex();
+            } else {
+                index = CreativeSearchOrder.getDisplayIndex(
+                        CreativeModeTabs.searchTab().getDisplayItems());
+            }
+            for (int i = 0; i < stacks.length; i++) {
+                if (!stacks[i].isEmpty()) keys[i] = index.getPosition(stacks[i]);
             }
-        });
+        }));
         
         // Descending order of stack size
-        QUANTITY = register("quantity", new SortOrder("quantity") {
-            @Override
-            public int[] sort(int[] sortIds, ItemStack[] stacks, SortContext context) {
-                HashMap<Item, Integer> itemToAmountMap = new HashMap<>();
-
-                for (ItemStack stack : stacks) {
-                    if (stack.isEmpty()) continue;
-                    if (!itemToAmountMap.containsKey(stack.getItem())) {
-                        itemToAmountMap.put(stack.getItem(), stack.getCount());
-                    } else {
-                        itemToAmountMap.put(stack.getItem(), 
-                                itemToAmountMap.get(stack.getItem()) + stack.getCount());
-                    }
-                }
-
-                IntArrays.quickSort(sortIds, (a, b) -> {
-                    ItemStack stack = stacks[a];
-                    ItemStack stack2 = stacks[b];
-                    if (stack.isEmpty()) {
-                        return stack2.isEmpty() ? 0 : 1;
-                    }
-                    if (stack2.isEmpty()) {
-                        return -1;
-                    }
-                    Integer amountA = itemToAmountMap.get(stack.getItem());
-                    Integer amountB = itemToAmountMap.get(stack2.getItem());
-                    int cmp = Integer.compare(amountB, amountA);
-                    if (cmp != 0) {
-                        return cmp;
-                    }
-                    return StackComparison.compareEqualItems(stack, stack2);
-                });
-
-                return sortIds;
+        QUANTITY = register("quantity", new KeySortOrder("quantity", (stacks, keys, context) -> {
+            Reference2IntOpenHashMap<Item> totals = new Reference2IntOpenHashMap<>();
+            for (ItemStack stack : stacks) {
+                if (stack.isEmpty()) continue;
+                totals.addTo(stack.getItem(), stack.getCount());
+            }
+            
+            // Rank the items by descending total, then by raw ID so that items
+            // with equal totals are not interleaved
+            long[] itemKeys = new long[totals.size()];
+            int itemCount = 0;
+            for (Reference2IntMap.Entry<Item> entry : Reference2IntMaps.fastIterable(totals)) {
+                itemKeys[itemCount++] = ((long) -entry.getIntValue() << 32)
+                        | BuiltInRegistries.ITEM.getId(entry.getKey());
+            }
+            LongArrays.radixSort(itemKeys);
+            // Replace the totals with the ranks
+            for (int rank = 0; rank < itemCount; rank++) {
+                totals.put(BuiltInRegistries.ITEM.byId((int) itemKeys[rank]), rank);
+            }
+            
+            for (int i = 0; i < stacks.length; i++) {
+                ItemStack stack = stacks[i];
+                if (stack.isEmpty()) continue;
+                keys[i] = totals.getInt(stack.getItem());
             }
-        });
+        }));
         
         // Descending order of raw item ID
-        RAW_ID = register("rawId", new SortOrder("rawId") {
-            @Override
-            public int[] sort(int[] sortIds, ItemStack[] stacks, SortContext context) {
-                int[] rawIds = Arrays.stream(stacks).mapToInt(stack -> stack.isEmpty()
-                        ? Integer.MAX_VALUE
-                        : BuiltInRegistries.ITEM.getId(stack.getItem())).toArray();
-                sortByValues(sortIds, rawIds, stacks);
-                return sortIds;
+        RAW_ID = register("rawId", new KeySortOrder("rawId", (stacks, keys, context) -> {
+            for (int i = 0; i < stacks.length; i++) {
+                if (stacks[i].isEmpty()) continue;
+                keys[i] = BuiltInRegistries.ITEM.getId(stacks[i].getItem());
             }
-        });
+        }));
     }
 }
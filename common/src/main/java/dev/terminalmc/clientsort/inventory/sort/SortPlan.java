@@ -0,0 +1,165 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.inventory.sort;
+
+import net.minecraft.world.inventory.ClickType;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The operations required to apply a sort, in the order they must be
+ * executed. Slot numbers are indices into the set of slots being sorted.
+ *
+ * <p>Plans are plain data, so they can be inspected and rewritten by
+ * {@link SortPlanOptimizer} before being lowered to interaction events.</p>
+ */
+public final class SortPlan {
+    private final List<Op> ops;
+
+    public SortPlan(List<Op> ops) {
+        this.ops = List.copyOf(ops);
+    }
+
+    /**
+     * @return the operations, in the order they must be executed.
+     */
+    public List<Op> ops() {
+        return ops;
+    }
+
+    public int clickCount() {
+        int count = 0;
+        for (Op op : ops) {
+            count += op.clickCount();
+        }
+        return count;
+    }
+
+    /**
+     * A single operation of a plan.
+     */
+    public sealed interface Op permits Pickup, Swap, Merge, SetSlots, ServerMapping {
+        /**
+         * @return the clicks that carry out this operation, which are empty if
+         * it is not carried out with clicks.
+         */
+        List<ClickPlanner.Click> clicks();
+
+        default int clickCount() {
+            return clicks().size();
+        }
+    }
+
+    /**
+     * A pickup click, which swaps the carried stack with the slot stack.
+     * @param slot the slot to click.
+     * @param button the mouse button to click with.
+     */
+    public record Pickup(int slot, int button) implements Op {
+        @Override
+        public List<ClickPlanner.Click> clicks() {
+            return List.of(new ClickPlanner.Click(slot, button, ClickType.PICKUP));
+        }
+    }
+
+    /**
+     * A number key swap between a slot and a hotbar slot.
+     * @param slot the slot to click.
+     * @param button the number key of the hotbar slot.
+     */
+    public record Swap(int slot, int button) implements Op {
+        @Override
+        public List<ClickPlanner.Click> clicks() {
+            return List.of(new ClickPlanner.Click(slot, button, ClickType.SWAP));
+        }
+    }
+
+    /**
+     * Combines the partial stack in a slot into other partial stacks of the
+     * same item, by picking it up and clicking each target in turn.
+     * @param source the slot to take the stack from.
+     * @param targets the slots to fill, in order.
+     * @param putBack whether the remainder is placed back in the source slot.
+     *                If not, the remainder is left carried.
+     */
+    public record Merge(int source, int[] targets, boolean putBack) implements Op {
+        @Override
+        public List<ClickPlanner.Click> clicks() {
+            List<ClickPlanner.Click> clicks = new ArrayList<>(targets.length + 2);
+            clicks.add(new ClickPlanner.Click(source, 0, ClickType.PICKUP));
+            for (int target : targets) {
+                clicks.add(new ClickPlanner.Click(target, 0, ClickType.PICKUP));
+            }
+            if (putBack) clicks.add(new ClickPlanner.Click(source, 0, ClickType.PICKUP));
+            return clicks;
+        }
+
+        @Override
+        public int clickCount() {
+            return targets.length + (putBack ? 2 : 1);
+        }
+    }
+
+    /**
+     * Sets the contents of slots directly, without clicking.
+     * @param slots the slots to set.
+     * @param stacks the stacks to put in the respective slots, which must not
+     *               be modified.
+     */
+    public record SetSlots(int[] slots, ItemStack[] stacks) implements Op {
+        @Override
+        public List<ClickPlanner.Click> clicks() {
+            return List.of();
+        }
+    }
+
+    /**
+     * Has the server move stacks between slots. The server takes all stacks
+     * before placing any, so the pairs may be applied in any order.
+     * @param slotMapping pairs of (origin, destination) slots. The origins
+     *                    and destinations are the same set of slots.
+     */
+    public record ServerMapping(int[] slotMapping) implements Op {
+        /**
+         * @param sortedIds maps each slot index (the destination) to the index
+         *                  of the slot whose stack should be moved there.
+         * @return a mapping of the slots that do not keep their stack.
+         */
+        public static ServerMapping of(int[] sortedIds) {
+            int moveCount = 0;
+            for (int i = 0; i < sortedIds.length; i++) {
+                if (sortedIds[i] != i) moveCount++;
+            }
+            int[] slotMapping = new int[moveCount * 2];
+            int j = 0;
+            for (int i = 0; i < sortedIds.length; i++) {
+                if (sortedIds[i] == i) continue;
+                slotMapping[j++] = sortedIds[i];
+                slotMapping[j++] = i;
+            }
+            return new ServerMapping(slotMapping);
+        }
+
+        @Override
+        public List<ClickPlanner.Click> clicks() {
+            return List.of();
+        }
+    }
+}
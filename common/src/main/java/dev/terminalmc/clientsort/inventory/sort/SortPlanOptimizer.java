@@ -0,0 +1,161 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.inventory.sort;
+
+import dev.terminalmc.clientsort.main.MainSort;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.inventory.Slot;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites a {@link SortPlan} into an equivalent plan with fewer operations.
+ *
+ * <p>A merge that puts its remainder back is fused with a following pickup of
+ * that remainder, so the remainder stays carried. If anything was fused, the
+ * optimized plan is simulated against the original one, and the original is
+ * kept if their results differ in any way.</p>
+ */
+public class SortPlanOptimizer {
+    /**
+     * Optimizes the plan.
+     * @param plan the plan to optimize.
+     * @param slots the slots being sorted.
+     * @param initial the contents of the respective slots.
+     * @param hotbar the contents of the player's hotbar, or {@code null} if
+     *               unknown.
+     * @param player the player performing the clicks.
+     * @param lmbBundle whether bundles use left-click to load.
+     * @return the optimized plan, or the original plan if it could not be
+     * optimized.
+     */
+    public static SortPlan optimize(SortPlan plan, Slot[] slots, InventorySnapshot initial,
+                                    @Nullable ItemStack[] hotbar, Player player,
+                                    boolean lmbBundle) {
+        List<SortPlan.Op> ops = fuseMoves(plan.ops());
+        if (ops.size() == plan.ops().size()) return plan;
+        SortPlan optimized = new SortPlan(ops);
+
+        // Check that the optimized plan has exactly the same result
+        ClickSimulator expected = new ClickSimulator(slots, initial, hotbar, player, lmbBundle);
+        ClickSimulator actual = new ClickSimulator(slots, initial, hotbar, player, lmbBundle);
+        if (!simulate(expected, plan.ops()) || !simulate(actual, optimized.ops())
+                || !sameState(expected, actual, slots.length)) {
+            MainSort.LOG.debug("Discarding optimized sort plan with a different result");
+            return plan;
+        }
+        MainSort.LOG.debug("Optimized sort plan from {} to {} clicks",
+                plan.clickCount(), optimized.clickCount());
+        return optimized;
+    }
+
+    /**
+     * Fuses each pair of adjacent operations that can be expressed as a
+     * single operation.
+     */
+    private static List<SortPlan.Op> fuseMoves(List<SortPlan.Op> ops) {
+        List<SortPlan.Op> fused = new ArrayList<>(ops.size());
+        for (SortPlan.Op op : ops) {
+            SortPlan.Op replacement = fused.isEmpty() ? null : fuse(fused.getLast(), op);
+            if (replacement == null) {
+                fused.add(op);
+            } else {
+                fused.set(fused.size() - 1, replacement);
+            }
+        }
+        return fused;
+    }
+
+    /**
+     * @return the operation equivalent to {@code first} followed by
+     * {@code second}, or {@code null} if they cannot be fused.
+     */
+    private static @Nullable SortPlan.Op fuse(SortPlan.Op first, SortPlan.Op second) {
+        if (first instanceof SortPlan.Merge merge && merge.putBack()
+                && second instanceof SortPlan.Pickup pickup
+                && pickup.slot() == merge.source() && pickup.button() == 0) {
+            // Keep holding the remainder instead of putting it back down and
+            // picking it up again
+            return new SortPlan.Merge(merge.source(), merge.targets(), false);
+        }
+        return null;
+    }
+
+    /**
+     * Simulates the operations in order.
+     * @return {@code false} if the effect of any operation cannot be
+     * simulated.
+     */
+    private static boolean simulate(ClickSimulator simulator, List<SortPlan.Op> ops) {
+        for (SortPlan.Op op : ops) {
+            if (!simulate(simulator, op)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Simulates the operation.
+     * @return {@code false} if its effect cannot be simulated.
+     */
+    private static boolean simulate(ClickSimulator simulator, SortPlan.Op op) {
+        if (op instanceof SortPlan.SetSlots set) {
+            for (int i = 0; i < set.slots().length; i++) {
+                simulator.set(set.slots()[i], set.stacks()[i]);
+            }
+        } else if (op instanceof SortPlan.ServerMapping mapping) {
+            // The server takes all stacks before placing any
+            int[] slotMapping = mapping.slotMapping();
+            ItemStack[] moved = new ItemStack[slotMapping.length / 2];
+            for (int i = 0; i < slotMapping.length; i += 2) {
+                moved[i / 2] = simulator.getItem(slotMapping[i]).copy();
+            }
+            for (int i = 0; i < slotMapping.length; i += 2) {
+                simulator.set(slotMapping[i + 1], moved[i / 2]);
+            }
+        } else {
+            for (ClickPlanner.Click click : op.clicks()) {
+                if (!simulator.click(click)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the simulated slots, carried stack and hotbar
+     * of both simulators match.
+     */
+    private static boolean sameState(ClickSimulator a, ClickSimulator b, int size) {
+        for (int i = 0; i < size; i++) {
+            if (!ItemStack.matches(a.getItem(i), b.getItem(i))) return false;
+        }
+        if (!ItemStack.matches(a.getCarried(), b.getCarried())) return false;
+        for (int button = 0; button < Inventory.getSelectionSize(); button++) {
+            ItemStack stackA = a.getHotbarItem(button);
+            ItemStack stackB = b.getHotbarItem(button);
+            if (stackA == null || stackB == null
+                    ? stackA != stackB : !ItemStack.matches(stackA, stackB)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
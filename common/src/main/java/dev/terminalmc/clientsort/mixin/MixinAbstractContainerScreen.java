@@ -162,7 +162,8 @@ public abstract class MixinAbstractContainerScreen extends Screen {
 
     /**
      * Triggers sorting of this screen's inventory.
-     * @return {@code true} if sorting was completed.
+     * @return {@code true} if sorting was started. Sorting completes
+     * asynchronously.
      */
     @Unique
     @SuppressWarnings("ConstantConditions")
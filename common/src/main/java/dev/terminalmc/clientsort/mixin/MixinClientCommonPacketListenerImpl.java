@@ -0,0 +1,38 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.mixin;
+
+import dev.terminalmc.clientsort.util.item.ItemAttributes;
+import net.minecraft.client.multiplayer.ClientCommonPacketListenerImpl;
+import net.minecraft.network.protocol.common.ClientboundUpdateTagsPacket;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Network-related events common to the configuration and play phases.
+ */
+@Mixin(ClientCommonPacketListenerImpl.class)
+public abstract class MixinClientCommonPacketListenerImpl {
+
+    @Inject(method = "handleUpdateTags", at = @At("RETURN"))
+    private void onUpdateTags(ClientboundUpdateTagsPacket packet, CallbackInfo ci) {
+        ItemAttributes.invalidate();
+    }
+}
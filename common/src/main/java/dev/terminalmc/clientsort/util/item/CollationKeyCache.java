@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.util.item;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.terminalmc.clientsort.config.Config;
+import net.minecraft.client.Minecraft;
+import net.minecraft.core.component.DataComponentPatch;
+import net.minecraft.locale.Language;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Caches {@link CollationKey}s of the hover names of {@link ItemStack}s, so
+ * that names can be compared according to the rules of the active language.
+ *
+ * <p>Lookups first check a weak identity cache, then a bounded cache keyed by
+ * item and components. The caches are cleared when the language changes or
+ * resources are reloaded, as either can change the names.</p>
+ */
+public class CollationKeyCache {
+    private static final int MAX_SIZE = 2048;
+    // How many names each parallel task builds keys for
+    private static final int CHUNK_SIZE = 32;
+
+    private static final Cache<ItemStack, CollationKey> keysByStack = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(MAX_SIZE)
+            .build();
+    private static final Cache<Key, CollationKey> keysByComponents = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .build();
+
+    // Language instances are replaced on every resource reload
+    private static WeakReference<Language> language = new WeakReference<>(null);
+    private static Collator collator = newCollator("en_us");
+
+    /**
+     * Gets the collation keys of the hover names of the specified stacks.
+     *
+     * <p>Names are resolved through the client language, so this must be
+     * called on the render thread. Once enough names are missing from the
+     * cache, their keys are built in parallel chunks on the common fork-join
+     * pool, each chunk with its own copy of the collator.</p>
+     * @return the keys of the respective stacks, which are {@code null} for
+     * empty stacks.
+     */
+    public static CollationKey[] getKeys(ItemStack[] stacks) {
+        Collator currentCollator = validate(Language.getInstance());
+        CollationKey[] keys = new CollationKey[stacks.length];
+        
+        // Resolve the names of the stacks whose keys are not cached
+        int[] missing = new int[stacks.length];
+        String[] names = new String[stacks.length];
+        int missingCount = 0;
+        for (int i = 0; i < stacks.length; i++) {
+            ItemStack stack = stacks[i];
+            if (stack.isEmpty()) continue;
+            keys[i] = getCachedKey(stack);
+            if (keys[i] == null) {
+                missing[missingCount] = i;
+                names[missingCount] = stack.getHoverName().getString();
+                missingCount++;
+            }
+        }
+        
+        CollationKey[] built = new CollationKey[missingCount];
+        if (missingCount < Config.options().parallelSortThreshold) {
+            // Collators are not thread-safe
+            synchronized (currentCollator) {
+                for (int i = 0; i < missingCount; i++) {
+                    built[i] = currentCollator.getCollationKey(names[i]);
+                }
+            }
+        } else {
+            int chunkCount = (missingCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            Collator[] collators = new Collator[chunkCount];
+            synchronized (currentCollator) {
+                for (int chunk = 0; chunk < chunkCount; chunk++) {
+                    collators[chunk] = (Collator) currentCollator.clone();
+                }
+            }
+            int count = missingCount;
+            IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+                int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                    built[i] = collators[chunk].getCollationKey(names[i]);
+                }
+            });
+        }
+        
+        for (int i = 0; i < missingCount; i++) {
+            ItemStack stack = stacks[missing[i]];
+            keys[missing[i]] = built[i];
+            keysByComponents.put(new Key(stack.getItem(), stack.getComponentsPatch()), built[i]);
+            keysByStack.put(stack, built[i]);
+        }
+        return keys;
+    }
+
+    /**
+     * @return the cached collation key of the hover name of the specified
+     * stack, or {@code null} if it is not cached.
+     */
+    private static @Nullable CollationKey getCachedKey(ItemStack stack) {
+        CollationKey key = keysByStack.getIfPresent(stack);
+        if (key != null) return key;
+        key = keysByComponents.getIfPresent(new Key(stack.getItem(), stack.getComponentsPatch()));
+        if (key != null) keysByStack.put(stack, key);
+        return key;
+    }
+
+    /**
+     * Clears the cache.
+     */
+    public static void invalidate() {
+        keysByStack.invalidateAll();
+        keysByComponents.invalidateAll();
+    }
+
+    /**
+     * Clears the cache if the language has changed or resources have been
+     * reloaded since it was populated.
+     * @return the collator for the current language.
+     */
+    private static synchronized Collator validate(Language currentLanguage) {
+        if (language.get() != currentLanguage) {
+            invalidate();
+            language = new WeakReference<>(currentLanguage);
+            collator = newCollator(Minecraft.getInstance().getLanguageManager().getSelected());
+        }
+        return collator;
+    }
+
+    /**
+     * @return a case-insensitive collator for the specified Minecraft
+     * language code.
+     */
+    private static Collator newCollator(String languageCode) {
+        Collator collator = Collator.getInstance(
+                Locale.forLanguageTag(languageCode.replace('_', '-')));
+        collator.setStrength(Collator.SECONDARY);
+        return collator;
+    }
+
+    private record Key(Item item, DataComponentPatch patch) {}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.util.item;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.core.Holder;
+import net.minecraft.core.component.DataComponentMap;
+import net.minecraft.core.component.DataComponentType;
+import net.minecraft.core.component.DataComponents;
+import net.minecraft.core.component.TypedDataComponent;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.ComponentContents;
+import net.minecraft.network.chat.contents.KeybindContents;
+import net.minecraft.network.chat.contents.PlainTextContents;
+import net.minecraft.network.chat.contents.TranslatableContents;
+import net.minecraft.world.effect.MobEffectInstance;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.alchemy.PotionContents;
+import net.minecraft.world.item.component.ItemLore;
+import net.minecraft.world.item.enchantment.Enchantment;
+import net.minecraft.world.item.enchantment.ItemEnchantments;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Structural {@link ItemStack} comparison based on data components.
+ *
+ * <p>Components are compared in a fixed canonical order, using a sort key
+ * computed once per distinct component value. Text components are keyed by
+ * their contents, with translation keys in place of translated text, so the
+ * comparison does not depend on the client language or level. It is
+ * deterministic and can be used off the render thread.</p>
+ */
+public class ComponentComparison {
+    // Canonical component order
+    private static final List<ComponentKey<?>> KEYS = List.of(
+            key(DataComponents.CUSTOM_NAME, ComponentComparison::textKey),
+            key(DataComponents.ENCHANTMENTS, ComponentComparison::enchantmentsKey),
+            key(DataComponents.STORED_ENCHANTMENTS, ComponentComparison::enchantmentsKey),
+            key(DataComponents.POTION_CONTENTS, ComponentComparison::potionKey),
+            key(DataComponents.INSTRUMENT, ComponentComparison::holderKey),
+            key(DataComponents.OMINOUS_BOTTLE_AMPLIFIER, amplifier -> amplifier),
+            key(DataComponents.FIREWORKS, fireworks -> fireworks.flightDuration()),
+            key(DataComponents.TRIM, trim -> holderKey(trim.pattern())
+                    + ";" + holderKey(trim.material())),
+            key(DataComponents.WRITTEN_BOOK_CONTENT,
+                    book -> book.title().raw().toLowerCase(Locale.ROOT)),
+            key(DataComponents.LORE, ComponentComparison::loreKey)
+    );
+
+    // Components compared separately by StackComparison
+    private static final Set<DataComponentType<?>> COMPARED_ELSEWHERE = Set.of(
+            DataComponents.DYED_COLOR,
+            DataComponents.DAMAGE
+    );
+
+    private static final Set<DataComponentType<?>> KNOWN_TYPES = new ReferenceOpenHashSet<>();
+    static {
+        for (ComponentKey<?> key : KEYS) {
+            KNOWN_TYPES.add(key.type());
+        }
+        KNOWN_TYPES.addAll(COMPARED_ELSEWHERE);
+    }
+
+    // Sort keys by component value identity
+    private static final Cache<Object, Comparable<?>> sortKeys = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(4096)
+            .build();
+
+    /**
+     * Compares the known components of the specified stacks.
+     * @return a negative integer, zero, or a positive integer as {@code a}
+     * should be sorted before, equally to, or after {@code b}.
+     */
+    public static int compare(ItemStack a, ItemStack b) {
+        DataComponentMap componentsA = a.getComponents();
+        DataComponentMap componentsB = b.getComponents();
+        if (componentsA.equals(componentsB)) return 0;
+        for (ComponentKey<?> key : KEYS) {
+            int cmp = key.compare(componentsA, componentsB);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return {@code true} if the specified stacks have different values for
+     * any component that is not compared structurally.
+     */
+    public static boolean differsInUnknown(ItemStack a, ItemStack b) {
+        DataComponentMap componentsA = a.getComponents();
+        DataComponentMap componentsB = b.getComponents();
+        if (componentsA.equals(componentsB)) return false;
+        for (TypedDataComponent<?> component : componentsA) {
+            if (KNOWN_TYPES.contains(component.type())) continue;
+            if (!Objects.equals(component.value(), componentsB.get(component.type()))) {
+                return true;
+            }
+        }
+        for (TypedDataComponent<?> component : componentsB) {
+            if (KNOWN_TYPES.contains(component.type())) continue;
+            if (!componentsA.has(component.type())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <T> ComponentKey<T> key(DataComponentType<T> type,
+                                           Function<T, Comparable<?>> function) {
+        return new ComponentKey<>(type, function);
+    }
+
+    private static String holderKey(Holder<?> holder) {
+        return holder.unwrapKey().map(key -> key.location().toString()).orElse("");
+    }
+
+    private static String enchantmentsKey(ItemEnchantments enchantments) {
+        String[] entries = new String[enchantments.size()];
+        int i = 0;
+        for (Object2IntMap.Entry<Holder<Enchantment>> entry : enchantments.entrySet()) {
+            entries[i++] = String.format(Locale.ROOT, "%s#%05d",
+                    holderKey(entry.getKey()), entry.getIntValue());
+        }
+        Arrays.sort(entries);
+        return String.join(";", entries);
+    }
+
+    private static String potionKey(PotionContents contents) {
+        StringBuilder builder = new StringBuilder(
+                contents.potion().map(ComponentComparison::holderKey).orElse(""));
+        for (MobEffectInstance effect : contents.customEffects()) {
+            builder.append(String.format(Locale.ROOT, ";%s#%03d#%08d",
+                    holderKey(effect.getEffect()), effect.getAmplifier(), effect.getDuration()));
+        }
+        return builder.toString();
+    }
+
+    private static String loreKey(ItemLore lore) {
+        StringBuilder builder = new StringBuilder();
+        for (Component line : lore.lines()) {
+            if (!builder.isEmpty()) builder.append('\n');
+            builder.append(textKey(line));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return a key built from the contents of the text component and its
+     * siblings, rather than from its resolved string. Translatable parts
+     * contribute their translation key and arguments.
+     */
+    private static String textKey(Component component) {
+        StringBuilder builder = new StringBuilder();
+        appendTextKey(builder, component);
+        return builder.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static void appendTextKey(StringBuilder builder, Component component) {
+        ComponentContents contents = component.getContents();
+        if (contents instanceof PlainTextContents plain) {
+            builder.append(plain.text());
+        } else if (contents instanceof TranslatableContents translatable) {
+            builder.append('{').append(translatable.getKey());
+            for (Object arg : translatable.getArgs()) {
+                builder.append('|');
+                if (arg instanceof Component argComponent) {
+                    appendTextKey(builder, argComponent);
+                } else {
+                    builder.append(arg);
+                }
+            }
+            builder.append('}');
+        } else if (contents instanceof KeybindContents keybind) {
+            builder.append('{').append(keybind.getName()).append('}');
+        } else {
+            // Score, selector and NBT contents describe what they resolve
+            builder.append('{').append(contents).append('}');
+        }
+        for (Component sibling : component.getSiblings()) {
+            appendTextKey(builder, sibling);
+        }
+    }
+
+    /**
+     * Extracts a sort key from a component.
+     * @param type the component type.
+     * @param function maps a component value to its sort key. All keys for a
+     *                 given type must be mutually comparable.
+     */
+    private record ComponentKey<T>(DataComponentType<T> type,
+                                   Function<T, Comparable<?>> function) {
+        int compare(DataComponentMap a, DataComponentMap b) {
+            T valueA = a.get(type);
+            T valueB = b.get(type);
+            if (valueA == valueB) return 0;
+            // Stacks without the component go first
+            if (valueA == null) return -1;
+            if (valueB == null) return 1;
+            if (valueA.equals(valueB)) return 0;
+            return compareKeys(sortKey(valueA), sortKey(valueB));
+        }
+
+        private Comparable<?> sortKey(T value) {
+            Comparable<?> key = sortKeys.getIfPresent(value);
+            if (key == null) {
+                key = function.apply(value);
+                sortKeys.put(value, key);
+            }
+            return key;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compareKeys(Comparable<?> a, Comparable<?> b) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+    }
+}
@@ -20,37 +20,97 @@ package dev.terminalmc.clientsort.util.item;
 import dev.terminalmc.clientsort.ClientSort;
 import dev.terminalmc.clientsort.config.Config;
 import dev.terminalmc.clientsort.main.MainSort;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.client.Minecraft;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.component.DataComponentPatch;
+import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.world.flag.FeatureFlagSet;
 import net.minecraft.world.item.CreativeModeTabs;
 import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 /**
  * Allows storing the creative inventory item order in memory to reduce compute
  * load for creative-order sort operations.
+ * 
+ * <p>The order is held in an immutable {@link Index}. Rebuilds construct a
+ * new index off-thread and publish it atomically, so readers always see a
+ * complete snapshot without locking.</p>
+ * 
+ * <p>Ranks are stored by raw item id, so most lookups are a single array
+ * read. Only items that appear in the order with non-default components have
+ * a secondary map of ranks by component patch.</p>
+ * 
+ * <p>Rebuilds run one at a time on a single background thread. A new refresh
+ * request cancels any build that it supersedes.</p>
  */
 public class CreativeSearchOrder {
-    // Item order map
-    private static final Object2IntMap<StackMatcher> stackPositionMap =
-            new Object2IntOpenHashMap<>();
-    static {
-        stackPositionMap.defaultReturnValue(Integer.MAX_VALUE);
-    }
+    // How many stacks to process between cancellation checks
+    private static final int CANCELLATION_CHECK_INTERVAL = 256;
+    
+    private static final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable,
+                MainSort.MOD_NAME + ": creative search stack position lookup builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static @Nullable Future<?> pendingBuild = null;
+    
+    // Generation of the most recently requested index
+    private static final AtomicInteger requestedGeneration = new AtomicInteger();
     
-    // Item order map lock
-    private static final ReadWriteLock stackPositionMapLock =
-            new ReentrantReadWriteLock();
+    // Most recently published index
+    private static volatile Index index = Index.EMPTY;
+    private static volatile BuildState buildState = BuildState.IDLE;
+    private static volatile CompletableFuture<Index> indexFuture =
+            CompletableFuture.completedFuture(Index.EMPTY);
+    
+    // Most recently built index of the search tab contents, for use when
+    // optimized sorting is disabled
+    private static WeakReference<Collection<ItemStack>> displayIndexSource =
+            new WeakReference<>(null);
+    private static int displayIndexSourceSize = 0;
+    private static Index displayIndex = Index.EMPTY;
 
-    public static Lock getReadLock() {
-        return stackPositionMapLock.readLock();
+    /**
+     * @return the most recently published index. The index is immutable, so
+     * it can be used for the duration of a sort.
+     */
+    public static Index getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the state of the most recently requested index.
+     */
+    public static BuildState getBuildState() {
+        return buildState;
+    }
+
+    /**
+     * @return a future that completes with the most recently requested index
+     * once it is published. If that request is superseded, the future
+     * completes with the index of the request that superseded it.
+     */
+    public static CompletableFuture<Index> getIndexFuture() {
+        return indexFuture;
     }
 
     /**
@@ -58,19 +118,39 @@ public class CreativeSearchOrder {
      * item.
      */
     public static int getPosition(ItemStack stack) {
-        int pos = stackPositionMap.getInt(StackMatcher.of(stack));
-        if (pos == Integer.MAX_VALUE) {
-            pos = stackPositionMap.getInt(StackMatcher.ignoreNbt(stack));
+        return index.getPosition(stack);
+    }
+
+    /**
+     * Gets an index of the specified creative search tab contents, building
+     * it on the calling thread if required. The most recently built index is
+     * reused until the contents change.
+     */
+    public static synchronized Index getDisplayIndex(Collection<ItemStack> displayStacks) {
+        if (displayIndexSource.get() != displayStacks
+                || displayIndexSourceSize != displayStacks.size()) {
+            displayIndex = build(displayStacks, 0, () -> false);
+            displayIndexSource = new WeakReference<>(displayStacks);
+            displayIndexSourceSize = displayStacks.size();
         }
-        return pos;
+        return displayIndex;
+    }
+
+    /**
+     * @return {@code true} if the specified index has been superseded by a
+     * refresh, whether or not the new index has been published yet.
+     */
+    public static boolean isStale(Index index) {
+        return index.generation() < requestedGeneration.get();
     }
 
     /**
-     * Clears {@link CreativeSearchOrder#stackPositionMap}, and re-populates it
-     * if possible and configured to do so.
+     * Clears the index, and re-populates it if possible and configured to do
+     * so.
      */
     public static void tryRefreshStackPositionMap() {
         if (Config.options().optimizedCreativeSorting) {
+            clearDisplayIndex();
             if (ClientSort.emiReloadLock.tryLock()) {
                 refreshStackPositionMap();
                 ClientSort.emiReloadLock.unlock();
@@ -79,16 +159,12 @@ public class CreativeSearchOrder {
                 ClientSort.updateBlockedByEmi = true;
             }
         } else {
-            Lock lock = stackPositionMapLock.writeLock();
-            lock.lock();
-            stackPositionMap.clear();
-            lock.unlock();
+            publish(Index.empty(newRequest()));
         }
     }
 
     /**
-     * Clears and re-populates {@link CreativeSearchOrder#stackPositionMap} by
-     * looking up the creative inventory.
+     * Re-populates the index by looking up the creative inventory.
      */
     private static void refreshStackPositionMap() {
         Minecraft mc = Minecraft.getInstance();
@@ -99,30 +175,186 @@ public class CreativeSearchOrder {
         boolean opTab = mc.player.canUseGameMasterBlocks()
                 && mc.options.operatorItemsTab().get();
 
-        CreativeModeTabs.tryRebuildTabContents(enabledFeatures, !opTab, mc.level.registryAccess());
+        int generation = newRequest();
+        
+        // Skip the rebuild if an up-to-date order was saved previously
+        RegistryAccess registryAccess = mc.level.registryAccess();
+        long cacheKey = SearchOrderCache.getKey(enabledFeatures, opTab, registryAccess);
+        Index cachedIndex = SearchOrderCache.load(cacheKey, registryAccess, generation);
+        if (cachedIndex != null) {
+            MainSort.LOG.debug("Loaded search order from cache");
+            publish(cachedIndex);
+            return;
+        }
+
+        CreativeModeTabs.tryRebuildTabContents(enabledFeatures, !opTab, registryAccess);
 
         Collection<ItemStack> displayStacks = new ArrayList<>(
                 CreativeModeTabs.searchTab().getDisplayItems());
-        new Thread(() -> {
-            Lock lock = stackPositionMapLock.writeLock();
-            lock.lock();
-            stackPositionMap.clear();
-            if (displayStacks.isEmpty()) {
-                lock.unlock();
-                return;
-            }
+        synchronized (CreativeSearchOrder.class) {
+            // A newer request would not be able to cancel this build
+            if (generation != requestedGeneration.get()) return;
+            buildState = BuildState.BUILDING;
+            pendingBuild = builder.submit(() -> {
+                Index newIndex = build(displayStacks, generation,
+                        () -> Thread.currentThread().isInterrupted()
+                                || generation < requestedGeneration.get());
+                if (newIndex == null) return; // Superseded
+                publish(newIndex);
+                SearchOrderCache.save(cacheKey, registryAccess, newIndex);
+            });
+        }
+    }
+
+    /**
+     * Starts a new request, cancelling any build for a previous request.
+     * @return the generation of the new request.
+     */
+    private static synchronized int newRequest() {
+        if (pendingBuild != null) {
+            pendingBuild.cancel(true);
+            pendingBuild = null;
+        }
+        CompletableFuture<Index> previousFuture = indexFuture;
+        indexFuture = new CompletableFuture<>();
+        if (!previousFuture.isDone()) {
+            indexFuture.thenAccept(previousFuture::complete);
+        }
+        return requestedGeneration.incrementAndGet();
+    }
+
+    private static synchronized void clearDisplayIndex() {
+        displayIndexSource = new WeakReference<>(null);
+        displayIndexSourceSize = 0;
+        displayIndex = Index.EMPTY;
+    }
 
-            int i = 0;
-            for (ItemStack stack : displayStacks) {
-                StackMatcher plainMatcher = StackMatcher.ignoreNbt(stack);
-                if (!stack.hasFoil() || !stackPositionMap.containsKey(plainMatcher)) {
-                    stackPositionMap.put(plainMatcher, i);
-                    i++;
-                }
-                stackPositionMap.put(StackMatcher.of(stack), i);
+    /**
+     * Builds a new index from the creative search tab contents.
+     * @param cancelled checked periodically to abort the build.
+     * @return the index, or {@code null} if the build was cancelled.
+     */
+    private static @Nullable Index build(Collection<ItemStack> displayStacks, int generation,
+                                         BooleanSupplier cancelled) {
+        int itemCount = BuiltInRegistries.ITEM.size();
+        // Rank of each item regardless of components
+        int[] plainRanks = newRanks(itemCount);
+        // Rank of each item with default components
+        int[] baseRanks = newRanks(itemCount);
+        Int2ObjectMap<Object2IntOpenHashMap<DataComponentPatch>> variantRanks =
+                new Int2ObjectOpenHashMap<>();
+        int i = 0;
+        int processed = 0;
+        for (ItemStack stack : displayStacks) {
+            if (++processed % CANCELLATION_CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+                return null;
+            }
+            int id = BuiltInRegistries.ITEM.getId(stack.getItem());
+            if (!stack.hasFoil() || plainRanks[id] == Integer.MAX_VALUE) {
+                plainRanks[id] = i;
                 i++;
             }
-            lock.unlock();
-        },  MainSort.MOD_NAME + ": creative search stack position lookup builder").start();
+            DataComponentPatch components = stack.getComponentsPatch();
+            if (components.isEmpty()) {
+                baseRanks[id] = i;
+            } else {
+                variantRanks.computeIfAbsent(id, k -> new Object2IntOpenHashMap<>())
+                        .put(components, i);
+            }
+            i++;
+        }
+
+        // Stacks with unlisted components fall back to the plain rank
+        Int2ObjectMap<Object2IntMap<DataComponentPatch>> variants =
+                new Int2ObjectOpenHashMap<>(variantRanks.size());
+        for (Int2ObjectMap.Entry<Object2IntOpenHashMap<DataComponentPatch>> entry
+                : Int2ObjectMaps.fastIterable(variantRanks)) {
+            Object2IntOpenHashMap<DataComponentPatch> ranks = entry.getValue();
+            ranks.defaultReturnValue(plainRanks[entry.getIntKey()]);
+            ranks.trim();
+            variants.put(entry.getIntKey(), Object2IntMaps.unmodifiable(ranks));
+        }
+        for (int id = 0; id < itemCount; id++) {
+            if (baseRanks[id] == Integer.MAX_VALUE) baseRanks[id] = plainRanks[id];
+        }
+        return new Index(baseRanks, Int2ObjectMaps.unmodifiable(variants), generation);
+    }
+
+    private static int[] newRanks(int size) {
+        int[] ranks = new int[size];
+        Arrays.fill(ranks, Integer.MAX_VALUE);
+        return ranks;
+    }
+
+    /**
+     * Publishes the specified index, unless a newer one has already been
+     * published.
+     */
+    private static synchronized void publish(Index newIndex) {
+        if (newIndex.generation() > index.generation()) {
+            index = newIndex;
+        }
+        if (newIndex.generation() == requestedGeneration.get()) {
+            buildState = newIndex.isEmpty() ? BuildState.IDLE : BuildState.READY;
+            pendingBuild = null;
+            indexFuture.complete(newIndex);
+        }
+    }
+
+    public enum BuildState {
+        /**
+         * No index has been requested, or the index was cleared.
+         */
+        IDLE,
+        /**
+         * An index is being built.
+         */
+        BUILDING,
+        /**
+         * The most recently requested index has been published.
+         */
+        READY
+    }
+
+    /**
+     * An immutable snapshot of the creative inventory search order. The arrays
+     * and maps of an index must not be modified.
+     * @param baseRanks the rank of each item with default components, by raw
+     *                  item id. Items absent from the order have rank
+     *                  {@link Integer#MAX_VALUE}.
+     * @param variantRanks the rank of each component patch of an item, by raw
+     *                     item id, for items that appear in the order with
+     *                     non-default components. Each map returns the rank of
+     *                     the item regardless of components for unlisted
+     *                     patches.
+     * @param generation the generation of the refresh that built the index.
+     */
+    public record Index(int[] baseRanks,
+                        Int2ObjectMap<Object2IntMap<DataComponentPatch>> variantRanks,
+                        int generation) {
+        static final Index EMPTY = empty(0);
+
+        static Index empty(int generation) {
+            return new Index(new int[0], Int2ObjectMaps.emptyMap(), generation);
+        }
+
+        public boolean isEmpty() {
+            return baseRanks.length == 0;
+        }
+
+        /**
+         * @return the creative inventory search order position of the
+         * specified item, or {@link Integer#MAX_VALUE} if it is not present.
+         */
+        public int getPosition(ItemStack stack) {
+            int id = BuiltInRegistries.ITEM.getId(stack.getItem());
+            if (id < 0 || id >= baseRanks.length) return Integer.MAX_VALUE;
+            DataComponentPatch components = stack.getComponentsPatch();
+            if (!components.isEmpty()) {
+                Object2IntMap<DataComponentPatch> variants = variantRanks.get(id);
+                if (variants != null) return variants.getInt(components);
+            }
+            return baseRanks[id];
+        }
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.util.item;
+
+import net.minecraft.core.Holder;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.tags.ItemTags;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.item.Item;
+
+import java.util.List;
+
+/**
+ * A table of {@link Item} tag membership by raw item id, so that tag checks on
+ * the sorting hot path are array reads.
+ *
+ * <p>The table is built on first use, and rebuilt after tags are reloaded.
+ * Creative search order ranks are held by raw item id in
+ * {@link CreativeSearchOrder.Index}.</p>
+ */
+public class ItemAttributes {
+    // Tags tracked in the tag bits, by bit index
+    private static final List<TagKey<Item>> TRACKED_TAGS = List.of(
+            ItemTags.DYEABLE
+    );
+    public static final int TAG_DYEABLE = 0;
+
+    private static volatile Table table = null;
+
+    /**
+     * @return {@code true} if the specified item is in the dyeable tag.
+     */
+    public static boolean isDyeable(Item item) {
+        return hasTag(item, TAG_DYEABLE);
+    }
+
+    /**
+     * @return {@code true} if the specified item is in the tracked tag with
+     * the specified bit index.
+     */
+    public static boolean hasTag(Item item, int tag) {
+        Table t = table();
+        int id = BuiltInRegistries.ITEM.getId(item);
+        return id >= 0 && id < t.tagBits().length && (t.tagBits()[id] & (1L << tag)) != 0;
+    }
+
+    /**
+     * Discards the table, so that it is rebuilt on next use.
+     */
+    public static void invalidate() {
+        table = null;
+    }
+
+    private static Table table() {
+        Table t = table;
+        if (t == null || t.tagBits().length != BuiltInRegistries.ITEM.size()) {
+            t = build();
+            table = t;
+        }
+        return t;
+    }
+
+    private static Table build() {
+        int size = BuiltInRegistries.ITEM.size();
+        long[] tagBits = new long[size];
+        for (int id = 0; id < size; id++) {
+            Item item = BuiltInRegistries.ITEM.byId(id);
+            Holder<Item> holder = item.builtInRegistryHolder();
+            for (int tag = 0; tag < TRACKED_TAGS.size(); tag++) {
+                if (holder.is(TRACKED_TAGS.get(tag))) tagBits[id] |= 1L << tag;
+            }
+        }
+        return new Table(tagBits);
+    }
+
+    private record Table(long[] tagBits) {}
+}
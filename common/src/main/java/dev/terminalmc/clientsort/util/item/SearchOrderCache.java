@@ -0,0 +1,221 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.util.item;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.mojang.datafixers.util.Pair;
+import dev.terminalmc.clientsort.main.MainSort;
+import dev.terminalmc.clientsort.platform.Services;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.core.HolderSet;
+import net.minecraft.core.Registry;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.component.DataComponentPatch;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.flag.FeatureFlagSet;
+import net.minecraft.world.flag.FeatureFlags;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persists the creative search order index to a compact binary file,
+ * so that it can be loaded instead of rebuilt when nothing it depends on has
+ * changed.
+ */
+public class SearchOrderCache {
+    private static final Path CACHE_DIR = Services.PLATFORM.getConfigDir();
+    private static final String FILE_NAME = MainSort.MOD_ID + ".search_order.bin";
+    private static final int MAGIC = 0x43534F49; // CSOI
+    private static final int FORMAT_VERSION = 3;
+
+    /**
+     * Computes the key that a cached order must match to be loaded.
+     * 
+     * <p>The key covers every built-in and data-driven registry with its
+     * tags, the enabled feature flags, and whether the operator items tab is
+     * enabled.</p>
+     *
+     * <p>Cached component patches refer to registry entries by network id,
+     * so each registry is hashed in id order. Patches may refer to any
+     * registry, so all of them are covered.</p>
+     *
+     * <p>Creative tabs filter some entries by tag, so the members of each
+     * bound tag are covered too.</p>
+     */
+    public static long getKey(FeatureFlagSet enabledFeatures, boolean opTab,
+                              RegistryAccess registryAccess) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(FORMAT_VERSION);
+        for (Registry<?> registry : BuiltInRegistries.REGISTRY) {
+            putInIdOrder(hasher, registry);
+        }
+        registryAccess.registries()
+                .sorted(Comparator.comparing(entry -> entry.key().location().toString()))
+                .forEach(entry -> putInIdOrder(hasher, entry.value()));
+        putSorted(hasher, FeatureFlags.REGISTRY.toNames(enabledFeatures));
+        hasher.putBoolean(opTab);
+        return hasher.hash().asLong();
+    }
+
+    private static <T> void putInIdOrder(Hasher hasher, Registry<T> registry) {
+        hasher.putUnencodedChars(registry.key().location().toString());
+        hasher.putInt(registry.size());
+        for (T value : registry) {
+            hasher.putInt(registry.getId(value));
+            hasher.putUnencodedChars(String.valueOf(registry.getKey(value)));
+        }
+        putTags(hasher, registry);
+    }
+
+    private static <T> void putTags(Hasher hasher, Registry<T> registry) {
+        List<Pair<TagKey<T>, HolderSet.Named<T>>> tags = registry.getTags()
+                .sorted(Comparator.comparing(tag -> tag.getFirst().location().toString()))
+                .toList();
+        hasher.putInt(tags.size());
+        for (Pair<TagKey<T>, HolderSet.Named<T>> tag : tags) {
+            hasher.putUnencodedChars(tag.getFirst().location().toString());
+            int[] members = tag.getSecond().stream()
+                    .mapToInt(holder -> registry.getId(holder.value()))
+                    .sorted()
+                    .toArray();
+            hasher.putInt(members.length);
+            for (int member : members) {
+                hasher.putInt(member);
+            }
+        }
+    }
+
+    private static void putSorted(Hasher hasher, Collection<ResourceLocation> ids) {
+        List<String> names = ids.stream().map(ResourceLocation::toString).sorted().toList();
+        hasher.putInt(names.size());
+        for (String name : names) {
+            hasher.putUnencodedChars(name);
+        }
+    }
+
+    /**
+     * Loads the cached index, if the cache exists and was saved with the same
+     * key.
+     * @return the index, or {@code null} if the cache could not be loaded.
+     */
+    public static @Nullable CreativeSearchOrder.Index load(long key, RegistryAccess registryAccess,
+                                                           int generation) {
+        Path file = CACHE_DIR.resolve(FILE_NAME);
+        if (!Files.exists(file)) return null;
+        RegistryFriendlyByteBuf buf = null;
+        try {
+            buf = new RegistryFriendlyByteBuf(
+                    Unpooled.wrappedBuffer(Files.readAllBytes(file)), registryAccess);
+            if (buf.readInt() != MAGIC || buf.readVarInt() != FORMAT_VERSION
+                    || buf.readLong() != key) {
+                return null;
+            }
+            int[] baseRanks = new int[buf.readVarInt()];
+            for (int i = 0; i < baseRanks.length; i++) {
+                baseRanks[i] = buf.readVarInt();
+            }
+            int variantCount = buf.readVarInt();
+            Int2ObjectMap<Object2IntMap<DataComponentPatch>> variantRanks =
+                    new Int2ObjectOpenHashMap<>(variantCount);
+            for (int i = 0; i < variantCount; i++) {
+                int id = buf.readVarInt();
+                int plainRank = buf.readVarInt();
+                int size = buf.readVarInt();
+                Object2IntOpenHashMap<DataComponentPatch> ranks = new Object2IntOpenHashMap<>(size);
+                ranks.defaultReturnValue(plainRank);
+                for (int j = 0; j < size; j++) {
+                    ranks.put(DataComponentPatch.STREAM_CODEC.decode(buf), buf.readVarInt());
+                }
+                variantRanks.put(id, Object2IntMaps.unmodifiable(ranks));
+            }
+            return new CreativeSearchOrder.Index(baseRanks,
+                    Int2ObjectMaps.unmodifiable(variantRanks), generation);
+        } catch (Exception e) {
+            // Catch Exception as decoding errors may not fall under
+            // IOException, but should only cause a rebuild.
+            MainSort.LOG.warn("Unable to load search order cache", e);
+            return null;
+        } finally {
+            if (buf != null) buf.release();
+        }
+    }
+
+    /**
+     * Saves the index to the cache with the specified key.
+     */
+    public static void save(long key, RegistryAccess registryAccess,
+                            CreativeSearchOrder.Index index) {
+        RegistryFriendlyByteBuf buf = new RegistryFriendlyByteBuf(Unpooled.buffer(), registryAccess);
+        try {
+            buf.writeInt(MAGIC);
+            buf.writeVarInt(FORMAT_VERSION);
+            buf.writeLong(key);
+            int[] baseRanks = index.baseRanks();
+            buf.writeVarInt(baseRanks.length);
+            for (int rank : baseRanks) {
+                buf.writeVarInt(rank);
+            }
+            buf.writeVarInt(index.variantRanks().size());
+            for (Int2ObjectMap.Entry<Object2IntMap<DataComponentPatch>> variants
+                    : Int2ObjectMaps.fastIterable(index.variantRanks())) {
+                Object2IntMap<DataComponentPatch> ranks = variants.getValue();
+                buf.writeVarInt(variants.getIntKey());
+                buf.writeVarInt(ranks.defaultReturnValue());
+                buf.writeVarInt(ranks.size());
+                for (Object2IntMap.Entry<DataComponentPatch> entry
+                        : Object2IntMaps.fastIterable(ranks)) {
+                    DataComponentPatch.STREAM_CODEC.encode(buf, entry.getKey());
+                    buf.writeVarInt(entry.getIntValue());
+                }
+            }
+            byte[] bytes = new byte[buf.readableBytes()];
+            buf.readBytes(bytes);
+
+            if (!Files.isDirectory(CACHE_DIR)) Files.createDirectories(CACHE_DIR);
+            Path file = CACHE_DIR.resolve(FILE_NAME);
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tempFile, bytes);
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            MainSort.LOG.warn("Unable to save search order cache", e);
+        } catch (Exception e) {
+            // Encoding errors should not prevent the order from being used
+            MainSort.LOG.warn("Unable to encode search order cache", e);
+        } finally {
+            buf.release();
+        }
+    }
+}
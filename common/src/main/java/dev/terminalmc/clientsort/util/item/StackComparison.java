@@ -17,16 +17,10 @@
 
 package dev.terminalmc.clientsort.util.item;
 
-import net.minecraft.client.Minecraft;
 import net.minecraft.core.component.DataComponents;
-import net.minecraft.network.chat.Component;
-import net.minecraft.tags.ItemTags;
 import net.minecraft.world.item.*;
 import net.minecraft.world.item.component.DyedItemColor;
 
-import java.awt.*;
-import java.util.Iterator;
-
 /**
  * {@link ItemStack} comparison methods.
  */
@@ -59,54 +53,99 @@ public class StackComparison {
     }
 
     private static int compareEqualItems3(ItemStack a, ItemStack b) {
-        // Compare tooltips
-        Iterator<Component> tooltipsA = a.getTooltipLines(
-                Item.TooltipContext.of(Minecraft.getInstance().level),
-                null, TooltipFlag.Default.NORMAL).iterator();
-        Iterator<Component> tooltipsB = b.getTooltipLines(
-                Item.TooltipContext.of(Minecraft.getInstance().level),
-                null, TooltipFlag.Default.NORMAL).iterator();
-
-        while (tooltipsA.hasNext()) {
-            if (!tooltipsB.hasNext()) {
-                return 1;
+        // Compare components
+        int cmp = ComponentComparison.compare(a, b);
+        if (cmp != 0) {
+            return cmp;
+        }
+        // Only fall back to tooltips for components we don't know about
+        if (ComponentComparison.differsInUnknown(a, b)) {
+            cmp = compareTooltips(a, b);
+            if (cmp != 0) {
+                return cmp;
             }
+        }
+        return compareEqualItems4(a, b);
+    }
 
-            int cmp = tooltipsA.next().getString().compareToIgnoreCase(tooltipsB.next().getString());
+    private static int compareTooltips(ItemStack a, ItemStack b) {
+        String[] tooltipA = TooltipCache.getLines(a);
+        String[] tooltipB = TooltipCache.getLines(b);
+
+        int lines = Math.min(tooltipA.length, tooltipB.length);
+        for (int i = 0; i < lines; i++) {
+            int cmp = tooltipA[i].compareToIgnoreCase(tooltipB[i]);
             if (cmp != 0) {
                 return cmp;
             }
         }
-        if (tooltipsB.hasNext()) {
-            return -1;
-        }
-        return compareEqualItems4(a, b);
+        return Integer.compare(tooltipA.length, tooltipB.length);
     }
 
     private static int compareEqualItems4(ItemStack a, ItemStack b) {
         // Compare special item properties
-        Item item = a.getItem();
-        if ((item.getDefaultInstance()).is(ItemTags.DYEABLE)) {
+        if (ItemAttributes.isDyeable(a.getItem())) {
             int colorA = DyedItemColor.getOrDefault(a, -6265536);
             int colorB = DyedItemColor.getOrDefault(b, -6265536);
-            float[] hsbA = Color.RGBtoHSB(colorA >> 16 & 0xFF, colorA >> 8 & 0xFF, colorA & 0xFF, null);
-            float[] hsbB = Color.RGBtoHSB(colorB >> 16 & 0xFF, colorB >> 8 & 0xFF, colorB & 0xFF, null);
-            int cmp = Float.compare(hsbA[0], hsbB[0]);
-            if (cmp != 0) {
-                return cmp;
-            }
-            cmp = Float.compare(hsbA[1], hsbB[1]);
-            if (cmp != 0) {
-                return cmp;
-            }
-            cmp = Float.compare(hsbA[2], hsbB[2]);
-            if (cmp != 0) {
-                return cmp;
+            if (colorA != colorB) {
+                int cmp = Float.compare(hue(colorA), hue(colorB));
+                if (cmp != 0) {
+                    return cmp;
+                }
+                cmp = Float.compare(saturation(colorA), saturation(colorB));
+                if (cmp != 0) {
+                    return cmp;
+                }
+                cmp = Float.compare(brightness(colorA), brightness(colorB));
+                if (cmp != 0) {
+                    return cmp;
+                }
             }
         }
         return compareEqualItems5(a, b);
     }
 
+    // HSB components as computed by java.awt.Color#RGBtoHSB, without
+    // allocating arrays
+
+    private static float hue(int color) {
+        int r = color >> 16 & 0xFF;
+        int g = color >> 8 & 0xFF;
+        int b = color & 0xFF;
+        int cmax = Math.max(r, Math.max(g, b));
+        int cmin = Math.min(r, Math.min(g, b));
+        if (cmax == 0 || cmax == cmin) return 0;
+        float redc = ((float) (cmax - r)) / ((float) (cmax - cmin));
+        float greenc = ((float) (cmax - g)) / ((float) (cmax - cmin));
+        float bluec = ((float) (cmax - b)) / ((float) (cmax - cmin));
+        float hue;
+        if (r == cmax) {
+            hue = bluec - greenc;
+        } else if (g == cmax) {
+            hue = 2.0f + redc - bluec;
+        } else {
+            hue = 4.0f + greenc - redc;
+        }
+        hue = hue / 6.0f;
+        if (hue < 0) hue = hue + 1.0f;
+        return hue;
+    }
+
+    private static float saturation(int color) {
+        int r = color >> 16 & 0xFF;
+        int g = color >> 8 & 0xFF;
+        int b = color & 0xFF;
+        int cmax = Math.max(r, Math.max(g, b));
+        int cmin = Math.min(r, Math.min(g, b));
+        if (cmax == 0) return 0;
+        return ((float) (cmax - cmin)) / ((float) cmax);
+    }
+
+    private static float brightness(int color) {
+        int cmax = Math.max(color >> 16 & 0xFF, Math.max(color >> 8 & 0xFF, color & 0xFF));
+        return ((float) cmax) / 255.0f;
+    }
+
     private static int compareEqualItems5(ItemStack a, ItemStack b) {
         // Compare damage
         return Integer.compare(a.getDamageValue(), b.getDamageValue());
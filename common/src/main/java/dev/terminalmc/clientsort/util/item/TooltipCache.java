@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022 Siphalor
+ * Copyright 2025 TerminalMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.terminalmc.clientsort.util.item;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.minecraft.client.Minecraft;
+import net.minecraft.core.component.DataComponentPatch;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.TooltipFlag;
+import net.minecraft.world.level.Level;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+/**
+ * Caches the flattened tooltip lines of {@link ItemStack}s, so that the
+ * tooltip of each distinct stack is built at most once.
+ *
+ * <p>Lookups first check a weak identity cache, which covers repeated
+ * comparisons of the same stack within a sort, then a bounded cache keyed by
+ * item and components, which is shared between sorts.</p>
+ */
+public class TooltipCache {
+    private static final int MAX_SIZE = 1024;
+    private static final String[] NO_LINES = new String[0];
+
+    private static final Cache<ItemStack, String[]> linesByStack = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(MAX_SIZE)
+            .build();
+    private static final Cache<Key, String[]> linesByComponents = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .build();
+
+    // Tooltips depend on the language and the registries of the level
+    private static String language = "";
+    private static WeakReference<Level> level = new WeakReference<>(null);
+
+    /**
+     * @return the tooltip lines of the specified stack, flattened to strings,
+     * or an empty array if there is no level to build the tooltip in.
+     */
+    public static String[] getLines(ItemStack stack) {
+        Minecraft mc = Minecraft.getInstance();
+        Level currentLevel = mc.level;
+        if (currentLevel == null) return NO_LINES;
+        validate(mc.getLanguageManager().getSelected(), currentLevel);
+
+        String[] lines = linesByStack.getIfPresent(stack);
+        if (lines != null) return lines;
+
+        Key key = new Key(stack.getItem(), stack.getComponentsPatch());
+        lines = linesByComponents.getIfPresent(key);
+        if (lines == null) {
+            List<Component> tooltip = stack.getTooltipLines(
+                    Item.TooltipContext.of(currentLevel), null, TooltipFlag.Default.NORMAL);
+            lines = new String[tooltip.size()];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = tooltip.get(i).getString();
+            }
+            linesByComponents.put(key, lines);
+        }
+        linesByStack.put(stack, lines);
+        return lines;
+    }
+
+    /**
+     * Clears the cache.
+     */
+    public static void invalidate() {
+        linesByStack.invalidateAll();
+        linesByComponents.invalidateAll();
+    }
+
+    /**
+     * Clears the cache if the language or level has changed since it was
+     * populated.
+     */
+    private static synchronized void validate(String currentLanguage, Level currentLevel) {
+        if (!currentLanguage.equals(language) || level.get() != currentLevel) {
+            invalidate();
+            language = currentLanguage;
+            level = new WeakReference<>(currentLevel);
+        }
+    }
+
+    private record Key(Item item, DataComponentPatch patch) {}
+}